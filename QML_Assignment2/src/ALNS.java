@@ -0,0 +1,717 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Adaptive large neighbourhood search for the electric VRP, under the same charge and time rules as the heuristic
+ * (see RouteEvaluator). Every iteration removes a number of buyers with one of the destroy operators and inserts them
+ * again with one of the repair operators, inserting a charging station next to a buyer when it fits nowhere without
+ * one. Operators are chosen by roulette wheel on weights that adapt to how well they did in the last segment of
+ * iterations, and new solutions are accepted with simulated annealing, with a temperature that falls from the start
+ * to the end of the wall-clock budget.
+ */
+public class ALNS {
+    private static final String[] DESTROY = {"random", "worst-cost", "related", "station"};
+    private static final String[] REPAIR = {"greedy", "regret-2", "regret-3"};
+    private static final int SEGMENT = 100; // iterations between weight updates
+    private static final double REACTION = 0.1; // share of the new scores in the updated weights
+    private static final double NEW_BEST = 33;
+    private static final double BETTER = 9;
+    private static final double ACCEPTED = 13;
+    private static final double RANDOMNESS = 3; // power of the random rank in worst-cost and related removal
+    private static final double START_WORSENING = 0.05; // at the start a destroyed part this much worse is accepted half of the time
+    private static final double END_TEMPERATURE = 0.001; // final temperature relative to the start
+    private static final int STATION_POSITIONS = 3; // cheapest positions tried with a station when none fits without
+    private static final int STATION_CHECKS = 10; // candidates with a station checked for feasibility
+    private static final double IMPROVEMENT = 1e-9;
+
+    private RouteEvaluator evaluator;
+    private DistanceMatrix c_matrix;
+    private DistanceMatrix t_matrix;
+    private double T;
+    private int nV;
+    private int nC;
+    private int end;
+    private Random random;
+
+    // Solution being destroyed and repaired; route arrays are never changed, a changed route is a new array
+    private List<int[]> routes;
+    private boolean[] stationUsed;
+    private boolean[] isRemoved;
+    private int[] removed;
+    private int nRemoved;
+    private int[] buffer;
+    private int[] order;
+    private double[] positionDelta;
+    private boolean[] positionChecked;
+    private int[] routeOfLocation; // route of every location during the repair, -1 if it is in no route
+
+    // Optional neighbour lists of the buyers; when given, a buyer is only inserted in routes with a neighbour
+    private int[] neighbourStart;
+    private int[] neighbours;
+
+    // Insertion cache of the repair: best feasible insertion of every removed buyer in every route
+    private double[][] insertionDelta;
+    private int[][] insertionPosition;
+    private int[][] insertionStation;
+    private boolean[][] insertionStationFirst;
+    private double[] newRouteDelta;
+    private int[] newRouteStation;
+    private boolean[] newRouteStationFirst;
+    private double[] candidateDelta;
+    private int[] candidatePosition;
+    private int[] candidateStation;
+    private boolean[] candidateStationFirst;
+
+    private double[] destroyWeights;
+    private double[] repairWeights;
+    private double[] destroyScores;
+    private double[] repairScores;
+    private int[] destroyUses;
+    private int[] repairUses;
+    private int[] destroyTotal;
+    private int[] repairTotal;
+    private int iterations;
+    private int newBest;
+    private double startCost;
+    private double bestCost;
+    private long totalTime;
+    private IncumbentListener listener;
+
+    public ALNS(RouteEvaluator evaluator, DistanceMatrix costs, DistanceMatrix times, double maxTime, int numLocations, int numChargeStations, long seed) {
+        this.evaluator = evaluator;
+        c_matrix = costs;
+        t_matrix = times;
+        T = maxTime;
+        nV = numLocations;
+        nC = numChargeStations;
+        end = costs.size() - 1;
+        random = new Random(seed);
+
+        stationUsed = new boolean[costs.size()];
+        isRemoved = new boolean[costs.size()];
+        removed = new int[nV];
+        buffer = new int[costs.size() + 2];
+        order = new int[costs.size() + 1];
+        positionDelta = new double[costs.size() + 1];
+        positionChecked = new boolean[costs.size() + 1];
+        routeOfLocation = new int[costs.size()];
+        candidateDelta = new double[2 * STATION_POSITIONS * nC];
+        candidatePosition = new int[candidateDelta.length];
+        candidateStation = new int[candidateDelta.length];
+        candidateStationFirst = new boolean[candidateDelta.length];
+
+        destroyWeights = new double[DESTROY.length];
+        repairWeights = new double[REPAIR.length];
+        Arrays.fill(destroyWeights, 1);
+        Arrays.fill(repairWeights, 1);
+        destroyScores = new double[DESTROY.length];
+        repairScores = new double[REPAIR.length];
+        destroyUses = new int[DESTROY.length];
+        repairUses = new int[REPAIR.length];
+        destroyTotal = new int[DESTROY.length];
+        repairTotal = new int[REPAIR.length];
+    }
+
+    /**
+     * Only insert a buyer in the routes that contain one of its neighbours (or in a new route).
+     *
+     * @param start Neighbours of buyer v are list[start[v]..start[v + 1] - 1]
+     */
+    public void setNeighbours(int[] start, int[] list) {
+        neighbourStart = start;
+        neighbours = list;
+    }
+
+    /**
+     * @param listener Receives every new best solution of solve, null (the default) for none
+     */
+    public void setIncumbentListener(IncumbentListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param initial Feasible routes to start from, each from depot 0 to depot n-1
+     * @param seconds Wall-clock budget
+     * @return the best routes found
+     */
+    public int[][] solve(int[][] initial, double seconds) {
+        long startTime = System.nanoTime();
+        long budget = (long) (seconds * 1e9);
+
+        List<int[]> current = new ArrayList<>(Arrays.asList(initial));
+        double currentCost = getCost(current);
+        List<int[]> best = current;
+        startCost = currentCost;
+        bestCost = currentCost;
+        double startTemperature = -START_WORSENING * currentCost * getRemovalShare() / Math.log(0.5);
+
+        long elapsed;
+        while ((elapsed = System.nanoTime() - startTime) < budget) {
+            double temperature = startTemperature * Math.pow(END_TEMPERATURE, (double) elapsed / budget);
+            int d = select(destroyWeights);
+            int r = select(repairWeights);
+            destroyUses[d]++;
+            repairUses[r]++;
+            iterations++;
+
+            routes = new ArrayList<>(current);
+            destroy(d, getRemovalCount());
+            if (repair(r + 1)) {
+                double candidateCost = getCost(routes);
+                double score = 0;
+                if (candidateCost < bestCost - IMPROVEMENT) {
+                    best = routes;
+                    bestCost = candidateCost;
+                    newBest++;
+                    score = NEW_BEST;
+                    if (listener != null) {
+                        listener.improved(routes.toArray(new int[0][]), bestCost, Double.NaN, (System.nanoTime() - startTime) / 1e9);
+                    }
+                } else if (candidateCost < currentCost - IMPROVEMENT) {
+                    score = BETTER;
+                } else if (random.nextDouble() < Math.exp((currentCost - candidateCost) / temperature)) {
+                    score = ACCEPTED;
+                }
+                if (score > 0) {
+                    current = routes;
+                    currentCost = candidateCost;
+                }
+                destroyScores[d] += score;
+                repairScores[r] += score;
+            }
+
+            if (iterations % SEGMENT == 0) {
+                updateWeights(destroyWeights, destroyScores, destroyUses, destroyTotal);
+                updateWeights(repairWeights, repairScores, repairUses, repairTotal);
+            }
+        }
+        totalTime += System.nanoTime() - startTime;
+        return best.toArray(new int[0][]);
+    }
+
+    public void printStatistics() {
+        System.out.println("ALNS: cost " + startCost + " -> " + bestCost + " in " + iterations + " iterations, "
+                + totalTime / 1e9 + " s (" + newBest + " new best solutions)");
+        for (int o = 0; o < DESTROY.length; o++) {
+            System.out.println(DESTROY[o] + " removal: weight = " + destroyWeights[o] + ", used " + (destroyTotal[o] + destroyUses[o]) + " times");
+        }
+        for (int o = 0; o < REPAIR.length; o++) {
+            System.out.println(REPAIR[o] + " insertion: weight = " + repairWeights[o] + ", used " + (repairTotal[o] + repairUses[o]) + " times");
+        }
+    }
+
+    private double getCost(List<int[]> solution) {
+        double cost = 0;
+        for (int[] route : solution) {
+            cost += evaluator.computeCost(route, route.length);
+        }
+        return cost;
+    }
+
+    // Roulette wheel selection
+    private int select(double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        double value = random.nextDouble() * total;
+        for (int o = 0; o < weights.length - 1; o++) {
+            value -= weights[o];
+            if (value < 0) {
+                return o;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    private void updateWeights(double[] weights, double[] scores, int[] uses, int[] total) {
+        for (int o = 0; o < weights.length; o++) {
+            if (uses[o] > 0) {
+                weights[o] = (1 - REACTION) * weights[o] + REACTION * scores[o] / uses[o];
+            }
+            weights[o] = Math.max(weights[o], 0.01);
+            total[o] += uses[o];
+            scores[o] = 0;
+            uses[o] = 0;
+        }
+    }
+
+    // Between 10% and 30% of the buyers, at most 60
+    private int getRemovalCount() {
+        return getMinimumRemoval() + random.nextInt(getMaximumRemoval() - getMinimumRemoval() + 1);
+    }
+
+    private int getMaximumRemoval() {
+        return Math.max(1, Math.min(60, (int) (0.3 * nV)));
+    }
+
+    private int getMinimumRemoval() {
+        return Math.max(1, Math.min(getMaximumRemoval(), (int) (0.1 * nV)));
+    }
+
+    // Average share of the buyers removed in an iteration, which scales the temperature to the part of the solution
+    // that changes
+    private double getRemovalShare() {
+        return (getMinimumRemoval() + getMaximumRemoval()) / 2.0 / nV;
+    }
+
+    private void destroy(int operator, int count) {
+        Arrays.fill(isRemoved, false);
+        nRemoved = 0;
+        switch (operator) {
+            case 0:
+                randomRemoval(count);
+                break;
+            case 1:
+                worstRemoval(count);
+                break;
+            case 2:
+                relatedRemoval(count);
+                break;
+            default:
+                stationRemoval(count);
+        }
+        removeBuyers();
+    }
+
+    private void markRemoved(int buyer) {
+        if (!isRemoved[buyer]) {
+            isRemoved[buyer] = true;
+            removed[nRemoved++] = buyer;
+        }
+    }
+
+    private void randomRemoval(int count) {
+        for (int i = 0; i < nV; i++) {
+            order[i] = i + 1;
+        }
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(nV - i);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+            markRemoved(order[i]);
+        }
+    }
+
+    // Remove buyers with a large saving in cost, randomized towards the largest
+    private void worstRemoval(int count) {
+        double[] saving = new double[nV + 1];
+        for (int[] route : routes) {
+            for (int p = 1; p < route.length - 1; p++) {
+                if (isBuyer(route[p])) {
+                    saving[route[p]] = c_matrix.get(route[p - 1], route[p]) + c_matrix.get(route[p], route[p + 1]) - c_matrix.get(route[p - 1], route[p + 1]);
+                }
+            }
+        }
+        List<Integer> candidates = new ArrayList<>();
+        for (int u = 1; u <= nV; u++) {
+            candidates.add(u);
+        }
+        candidates.sort((u, v) -> Double.compare(saving[v], saving[u]));
+        for (int i = 0; i < count; i++) {
+            markRemoved(candidates.remove(randomRank(candidates.size())));
+        }
+    }
+
+    // Remove buyers close to each other: start at a random buyer (unless some are removed already) and repeatedly
+    // remove a buyer close to a random removed one
+    private void relatedRemoval(int count) {
+        if (nRemoved == 0) {
+            markRemoved(1 + random.nextInt(nV));
+        }
+        List<Integer> candidates = new ArrayList<>();
+        for (int u = 1; u <= nV; u++) {
+            if (!isRemoved[u]) {
+                candidates.add(u);
+            }
+        }
+        while (nRemoved < count && !candidates.isEmpty()) {
+            int reference = removed[random.nextInt(nRemoved)];
+            candidates.sort((u, v) -> Double.compare(c_matrix.get(reference, u), c_matrix.get(reference, v)));
+            markRemoved(candidates.remove(randomRank(candidates.size())));
+        }
+    }
+
+    // Remove charging stations; a route that becomes infeasible loses the buyers after the station until it is
+    // feasible again, and the removal is topped up with related buyers
+    private void stationRemoval(int count) {
+        List<Integer> used = new ArrayList<>();
+        for (int[] route : routes) {
+            for (int p = 1; p < route.length - 1; p++) {
+                if (evaluator.isStation(route[p])) {
+                    used.add(route[p]);
+                }
+            }
+        }
+        int stations = used.isEmpty() ? 0 : 1 + random.nextInt(Math.max(1, used.size() / 2));
+        for (int s = 0; s < stations; s++) {
+            int station = used.remove(random.nextInt(used.size()));
+            for (int r = 0; r < routes.size(); r++) {
+                int[] route = routes.get(r);
+                int position = indexOf(route, station);
+                if (position < 0) {
+                    continue;
+                }
+                int length = 0;
+                for (int p = 0; p < route.length; p++) {
+                    if (p != position) {
+                        buffer[length++] = route[p];
+                    }
+                }
+                while (!isFeasibleOrEmpty(buffer, length)) {
+                    // Remove the first buyer after the station, or the last one before it if there is none
+                    int p = position;
+                    while (p < length - 1 && !isBuyer(buffer[p])) {
+                        p++;
+                    }
+                    if (p == length - 1) {
+                        p = position - 1;
+                        while (!isBuyer(buffer[p])) {
+                            p--;
+                        }
+                    }
+                    markRemoved(buffer[p]);
+                    System.arraycopy(buffer, p + 1, buffer, p, length - p - 1);
+                    length--;
+                    if (p < position) {
+                        position--;
+                    }
+                }
+                routes.set(r, Arrays.copyOf(buffer, length));
+                break;
+            }
+        }
+        relatedRemoval(count);
+    }
+
+    private int randomRank(int size) {
+        return (int) (Math.pow(random.nextDouble(), RANDOMNESS) * size);
+    }
+
+    // Take the removed buyers out of their routes and drop the routes that are left without buyers
+    private void removeBuyers() {
+        List<int[]> kept = new ArrayList<>(routes.size());
+        for (int[] route : routes) {
+            int length = 0;
+            boolean changed = false;
+            for (int location : route) {
+                if (isRemoved[location]) {
+                    changed = true;
+                } else {
+                    buffer[length++] = location;
+                }
+            }
+            if (countBuyers(buffer, length) == 0) {
+                continue;
+            }
+            if (!changed) {
+                kept.add(route);
+            } else {
+                // Without the triangle inequality a shorter route can be infeasible, then it is emptied as well
+                if (!evaluator.isFeasible(buffer, length)) {
+                    for (int p = 1; p < length - 1; p++) {
+                        if (isBuyer(buffer[p])) {
+                            markRemoved(buffer[p]);
+                        }
+                    }
+                } else {
+                    kept.add(Arrays.copyOf(buffer, length));
+                }
+            }
+        }
+        routes = kept;
+
+        Arrays.fill(stationUsed, false);
+        for (int[] route : routes) {
+            for (int p = 1; p < route.length - 1; p++) {
+                if (evaluator.isStation(route[p])) {
+                    stationUsed[route[p]] = true;
+                }
+            }
+        }
+    }
+
+    // Insert all removed buyers, every time the one with the largest regret over its best k options (the cheapest
+    // one for k = 1); false if some buyer fits nowhere
+    private boolean repair(int k) {
+        int capacity = routes.size() + nRemoved;
+        insertionDelta = new double[nRemoved][capacity];
+        insertionPosition = new int[nRemoved][capacity];
+        insertionStation = new int[nRemoved][capacity];
+        insertionStationFirst = new boolean[nRemoved][capacity];
+        newRouteDelta = new double[nRemoved];
+        newRouteStation = new int[nRemoved];
+        newRouteStationFirst = new boolean[nRemoved];
+        Arrays.fill(routeOfLocation, -1);
+        for (int r = 0; r < routes.size(); r++) {
+            for (int location : routes.get(r)) {
+                routeOfLocation[location] = r;
+            }
+        }
+        for (int i = 0; i < nRemoved; i++) {
+            for (int r = 0; r < routes.size(); r++) {
+                computeInsertion(i, r);
+            }
+            computeNewRoute(i);
+        }
+
+        double[] best = new double[k];
+        int remaining = nRemoved;
+        while (remaining > 0) {
+            int chosen = -1;
+            double chosenRegret = -1;
+            double chosenDelta = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < nRemoved; i++) {
+                if (removed[i] == 0) {
+                    continue;
+                }
+                Arrays.fill(best, Double.POSITIVE_INFINITY);
+                for (int r = 0; r <= routes.size(); r++) {
+                    double delta = r < routes.size() ? insertionDelta[i][r] : newRouteDelta[i];
+                    for (int h = 0; h < k; h++) {
+                        if (delta < best[h]) {
+                            System.arraycopy(best, h, best, h + 1, k - h - 1);
+                            best[h] = delta;
+                            break;
+                        }
+                    }
+                }
+                if (best[0] == Double.POSITIVE_INFINITY) {
+                    return false;
+                }
+                double regret = 0;
+                for (int h = 1; h < k; h++) {
+                    regret += Math.min(best[h], best[0] + 1e6) - best[0];
+                }
+                if (regret > chosenRegret || (regret == chosenRegret && best[0] < chosenDelta)) {
+                    chosen = i;
+                    chosenRegret = regret;
+                    chosenDelta = best[0];
+                }
+            }
+            insert(chosen);
+            removed[chosen] = 0;
+            remaining--;
+        }
+        return true;
+    }
+
+    // Insert a removed buyer at its cheapest option and refresh the options that changed
+    private void insert(int i) {
+        int buyer = removed[i];
+        int bestRoute = routes.size();
+        for (int r = 0; r < routes.size(); r++) {
+            if (insertionDelta[i][r] < (bestRoute < routes.size() ? insertionDelta[i][bestRoute] : newRouteDelta[i])) {
+                bestRoute = r;
+            }
+        }
+        int station;
+        if (bestRoute < routes.size()) {
+            station = insertionStation[i][bestRoute];
+            int length = buildInsertion(routes.get(bestRoute), insertionPosition[i][bestRoute], buyer, station, insertionStationFirst[i][bestRoute]);
+            routes.set(bestRoute, Arrays.copyOf(buffer, length));
+        } else {
+            station = newRouteStation[i];
+            int length = buildInsertion(new int[]{0, end}, 1, buyer, station, newRouteStationFirst[i]);
+            routes.add(Arrays.copyOf(buffer, length));
+        }
+        routeOfLocation[buyer] = bestRoute;
+        if (station != 0) {
+            stationUsed[station] = true;
+            routeOfLocation[station] = bestRoute;
+        }
+
+        for (int j = 0; j < nRemoved; j++) {
+            if (removed[j] == 0 || j == i) {
+                continue;
+            }
+            for (int r = 0; r < routes.size(); r++) {
+                if (r == bestRoute || (station != 0 && insertionStation[j][r] == station)) {
+                    computeInsertion(j, r);
+                }
+            }
+            if (station != 0 && newRouteStation[j] == station) {
+                computeNewRoute(j);
+            }
+        }
+    }
+
+    // Cheapest feasible position of removed buyer i in route r; with a station next to it if none fits without
+    private void computeInsertion(int i, int r) {
+        int buyer = removed[i];
+        int[] route = routes.get(r);
+        insertionDelta[i][r] = Double.POSITIVE_INFINITY;
+        insertionStation[i][r] = 0;
+        if (!isNear(buyer, r)) {
+            return;
+        }
+        for (int p = 1; p < route.length; p++) {
+            positionDelta[p] = c_matrix.get(route[p - 1], buyer) + c_matrix.get(buyer, route[p]) - c_matrix.get(route[p - 1], route[p]);
+        }
+
+        // Without a station the charging times can only go up (with the triangle inequality), so a position is
+        // skipped when the extra travel time alone exceeds the time left
+        double timeLeft = T - evaluator.computeTime(route, route.length);
+
+        // Check the positions from the cheapest up, keeping the order in which they were checked
+        Arrays.fill(positionChecked, 0, route.length, false);
+        int checked = 0;
+        while (checked < route.length - 1) {
+            int p = -1;
+            for (int q = 1; q < route.length; q++) {
+                if (!positionChecked[q] && (p < 0 || positionDelta[q] < positionDelta[p])) {
+                    p = q;
+                }
+            }
+            positionChecked[p] = true;
+            order[checked++] = p;
+            if (t_matrix.get(route[p - 1], buyer) + t_matrix.get(buyer, route[p]) - t_matrix.get(route[p - 1], route[p]) > timeLeft) {
+                continue;
+            }
+            int length = buildInsertion(route, p, buyer, 0, false);
+            if (evaluator.isFeasible(buffer, length)) {
+                insertionDelta[i][r] = positionDelta[p];
+                insertionPosition[i][r] = p;
+                return;
+            }
+        }
+
+        // No position fits without a station: try the cheapest positions with an available station before or after
+        int candidates = 0;
+        for (int c = 0; c < Math.min(STATION_POSITIONS, route.length - 1); c++) {
+            int p = order[c];
+            for (int f = nV + 1; f <= nV + nC; f++) {
+                if (stationUsed[f]) {
+                    continue;
+                }
+                candidates = addStationCandidates(candidates, route[p - 1], route[p], p, buyer, f);
+            }
+        }
+        int best = cheapestFeasibleCandidate(route, buyer, candidates);
+        if (best >= 0) {
+            insertionDelta[i][r] = candidateDelta[best];
+            insertionPosition[i][r] = candidatePosition[best];
+            insertionStation[i][r] = candidateStation[best];
+            insertionStationFirst[i][r] = candidateStationFirst[best];
+        }
+    }
+
+    // Cost of a new route for removed buyer i, with a station if it cannot be served alone
+    private void computeNewRoute(int i) {
+        int buyer = removed[i];
+        int[] route = {0, end};
+        newRouteDelta[i] = Double.POSITIVE_INFINITY;
+        newRouteStation[i] = 0;
+        int length = buildInsertion(route, 1, buyer, 0, false);
+        if (evaluator.isFeasible(buffer, length)) {
+            newRouteDelta[i] = evaluator.computeCost(buffer, length);
+            return;
+        }
+        int candidates = 0;
+        for (int f = nV + 1; f <= nV + nC; f++) {
+            if (!stationUsed[f]) {
+                candidates = addStationCandidates(candidates, 0, end, 1, buyer, f);
+            }
+        }
+        int best = cheapestFeasibleCandidate(route, buyer, candidates);
+        if (best >= 0) {
+            newRouteDelta[i] = candidateDelta[best] + c_matrix.get(0, end);
+            newRouteStation[i] = candidateStation[best];
+            newRouteStationFirst[i] = candidateStationFirst[best];
+        }
+    }
+
+    private int addStationCandidates(int candidates, int from, int to, int position, int buyer, int station) {
+        if (candidates + 2 > candidateDelta.length) {
+            return candidates;
+        }
+        double direct = c_matrix.get(from, to);
+        candidateDelta[candidates] = c_matrix.get(from, station) + c_matrix.get(station, buyer) + c_matrix.get(buyer, to) - direct;
+        candidatePosition[candidates] = position;
+        candidateStation[candidates] = station;
+        candidateStationFirst[candidates++] = true;
+        candidateDelta[candidates] = c_matrix.get(from, buyer) + c_matrix.get(buyer, station) + c_matrix.get(station, to) - direct;
+        candidatePosition[candidates] = position;
+        candidateStation[candidates] = station;
+        candidateStationFirst[candidates++] = false;
+        return candidates;
+    }
+
+    // Check the STATION_CHECKS cheapest candidates and return the first feasible one, -1 if there is none
+    private int cheapestFeasibleCandidate(int[] route, int buyer, int candidates) {
+        for (int check = 0; check < Math.min(STATION_CHECKS, candidates); check++) {
+            int best = -1;
+            for (int c = 0; c < candidates; c++) {
+                if (candidatePosition[c] > 0 && (best < 0 || candidateDelta[c] < candidateDelta[best])) {
+                    best = c;
+                }
+            }
+            if (best < 0) {
+                return -1;
+            }
+            int length = buildInsertion(route, candidatePosition[best], buyer, candidateStation[best], candidateStationFirst[best]);
+            if (evaluator.isFeasible(buffer, length)) {
+                return best;
+            }
+            candidatePosition[best] = -candidatePosition[best];
+        }
+        return -1;
+    }
+
+    // Write the route with the buyer (and the station, if not 0) inserted before position p to the buffer
+    private int buildInsertion(int[] route, int position, int buyer, int station, boolean stationFirst) {
+        System.arraycopy(route, 0, buffer, 0, position);
+        int length = position;
+        if (station != 0 && stationFirst) {
+            buffer[length++] = station;
+        }
+        buffer[length++] = buyer;
+        if (station != 0 && !stationFirst) {
+            buffer[length++] = station;
+        }
+        System.arraycopy(route, position, buffer, length, route.length - position);
+        return length + route.length - position;
+    }
+
+    private boolean isNear(int buyer, int r) {
+        if (neighbours == null) {
+            return true;
+        }
+        for (int e = neighbourStart[buyer]; e < neighbourStart[buyer + 1]; e++) {
+            if (routeOfLocation[neighbours[e]] == r) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isFeasibleOrEmpty(int[] route, int length) {
+        return countBuyers(route, length) == 0 || evaluator.isFeasible(route, length);
+    }
+
+    private boolean isBuyer(int location) {
+        return location >= 1 && location <= nV;
+    }
+
+    private int countBuyers(int[] route, int length) {
+        int count = 0;
+        for (int p = 1; p < length - 1; p++) {
+            if (isBuyer(route[p])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int indexOf(int[] route, int location) {
+        for (int p = 0; p < route.length; p++) {
+            if (route[p] == location) {
+                return p;
+            }
+        }
+        return -1;
+    }
+}
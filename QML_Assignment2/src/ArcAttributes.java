@@ -0,0 +1,84 @@
+import java.nio.DoubleBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Cost c = 1 + d, required charge q = 10 + d^0.75 and travel time t = 5 + d^0.9 of every arc. These only depend on
+ * the distances, so they are computed once per distance matrix and shared by every model and heuristic built on that
+ * matrix, whatever their charge and time limits. The costs are computed from d on demand; the charges and times are
+ * stored in the same layout and precision as the distances (see DistanceMatrix.map), so a triangular or float matrix
+ * keeps its memory saving, and a lazy or buffered one is not copied to the heap. The matrices are read-only.
+ */
+public class ArcAttributes {
+    private DistanceMatrix c_matrix;
+    private DistanceMatrix q_matrix;
+    private DistanceMatrix t_matrix;
+
+    private ArcAttributes(DistanceMatrix distances) {
+        c_matrix = distances.derive(d -> 1 + d);
+        q_matrix = distances.map(d -> 10 + Math.pow(d, 0.75));
+        t_matrix = distances.map(d -> 5 + Math.pow(d, 0.9));
+    }
+
+    // Attributes read from lower triangles of charges and times, e.g. mapped from an instance file, in place
+    private ArcAttributes(DistanceMatrix distances, DoubleBuffer charges, DoubleBuffer times) {
+        int nLocations = distances.size();
+        c_matrix = distances.derive(d -> 1 + d);
+        q_matrix = DistanceMatrix.triangle(charges, nLocations, null);
+        t_matrix = DistanceMatrix.triangle(times, nLocations, null);
+    }
+
+    /**
+     * Use precomputed charges and times, stored as lower triangles row by row, for a symmetric distance matrix
+     * instead of computing them on the first call of of(distances). They are read from the buffers directly, the
+     * way DistanceMatrix.triangle reads distances, so a memory-mapped file is never copied to the heap.
+     */
+    public static void preload(DistanceMatrix distances, DoubleBuffer charges, DoubleBuffer times) {
+        if (!distances.isSymmetric()) {
+            throw new IllegalArgumentException("Stored charges and times need symmetric distances");
+        }
+        if (!distances.arcAttributes.compareAndSet(null, new FutureTask<>(() -> new ArcAttributes(distances, charges, times)))) {
+            throw new IllegalStateException("Arc attributes of these distances are already in use");
+        }
+    }
+
+    /**
+     * @return the arc attributes of the distances, computed on the first call for this matrix. They are kept by the
+     * matrix itself, so they are dropped with it, and calls for different matrices never wait for each other; calls
+     * for the same matrix wait until the first one has built them.
+     */
+    public static ArcAttributes of(DistanceMatrix distances) {
+        distances.arcAttributes.compareAndSet(null, new FutureTask<>(() -> compute(distances)));
+        FutureTask<ArcAttributes> task = distances.arcAttributes.get();
+        task.run(); // only builds on the first call, later calls return at once
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            // The constructors only throw unchecked exceptions, e.g. an OutOfMemoryError, rethrown as they are
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    // The arc attributes of the distances, computed on every call, e.g. to time it
+    static ArcAttributes compute(DistanceMatrix distances) {
+        return new ArcAttributes(distances);
+    }
+
+    public DistanceMatrix getCosts() {
+        return c_matrix;
+    }
+
+    public DistanceMatrix getCharges() {
+        return q_matrix;
+    }
+
+    public DistanceMatrix getTimes() {
+        return t_matrix;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Preprocessing that removes the arcs which cannot be part of any feasible route, so the models only create
+ * variables for the remaining sparse arc set. Locations 1..nV are buyers, nV+1..n-2 are charging stations (none for
+ * the plain VRP), 0 is the leaving depot and n-1 the arriving depot.
+ * An arc (i,j) is removed when even the quickest way from the depot to i, over (i,j), and from j to the depot takes
+ * longer than T, or when the least charge from the last full charge before i, over (i,j), up to the next charge
+ * after j exceeds Q. Both bounds are shortest paths, so no feasible route is lost.
+ */
+public class ArcFilter {
+    private static final double EPSILON = 1e-6;
+
+    private int nLocations;
+    private int nV;
+    private boolean[][] allowed;
+    private int removedArcs;
+
+    public ArcFilter(DistanceMatrix t_matrix, DistanceMatrix q_matrix, double maxCharge, double maxTime, int numLocations) {
+        nLocations = t_matrix.size();
+        nV = numLocations;
+        int end = nLocations - 1;
+
+        // Quickest time from the leaving depot to i and from j to the arriving depot
+        double[] timeFromDepot = shortestPaths(t_matrix, new boolean[]{}, 0, false, false);
+        double[] timeToDepot = shortestPaths(t_matrix, new boolean[]{}, end, true, false);
+
+        // Least charge used since the last full charge before i, and until the next charge after j
+        boolean[] chargePoints = new boolean[nLocations];
+        chargePoints[0] = true;
+        for (int i = nV + 1; i < end; i++) {
+            chargePoints[i] = true;
+        }
+        double[] chargeBefore = shortestPaths(q_matrix, chargePoints, 0, false, true);
+        chargePoints[0] = false;
+        chargePoints[end] = true;
+        double[] chargeAfter = shortestPaths(q_matrix, chargePoints, end, true, true);
+
+        allowed = new boolean[nLocations][nLocations];
+        for (int i = 0; i < end; i++) {
+            for (int j = 1; j < nLocations; j++) {
+                if (i == j || (i == 0 && j == end)) {
+                    continue;
+                }
+                double time = timeFromDepot[i] + t_matrix.get(i, j) + timeToDepot[j];
+                double charge = chargeBefore[i] + q_matrix.get(i, j) + chargeAfter[j];
+                allowed[i][j] = time <= maxTime + EPSILON && charge <= maxCharge + EPSILON;
+            }
+        }
+
+        for (int i = 0; i < nLocations; i++) {
+            for (int j = 0; j < nLocations; j++) {
+                if (!allowed[i][j]) {
+                    removedArcs++;
+                }
+            }
+        }
+    }
+
+    public boolean isAllowed(int from, int to) {
+        return allowed[from][to];
+    }
+
+    public int getRemovedArcs() {
+        return removedArcs;
+    }
+
+    public int getRemainingArcs() {
+        return nLocations * nLocations - removedArcs;
+    }
+
+    @Override
+    public String toString() {
+        return "Arc preprocessing removed " + removedArcs + " of " + nLocations * nLocations + " arcs";
+    }
+
+    /**
+     * Dense Dijkstra over the locations without arcs into the leaving depot or out of the arriving depot.
+     *
+     * @param weights    Arc weights
+     * @param sources    Additional locations with distance 0 (only used when onlyBuyers is set)
+     * @param source     Location the paths start from (or end in when reverse is set)
+     * @param reverse    Compute the shortest paths towards the source instead of from it
+     * @param onlyBuyers Only continue paths through buyers, charging stations end a path
+     * @return the length of the shortest path for every location
+     */
+    private double[] shortestPaths(DistanceMatrix weights, boolean[] sources, int source, boolean reverse, boolean onlyBuyers) {
+        int end = nLocations - 1;
+        double[] distance = new double[nLocations];
+        boolean[] done = new boolean[nLocations];
+        for (int i = 0; i < nLocations; i++) {
+            distance[i] = (i == source || (i < sources.length && sources[i])) ? 0 : Double.POSITIVE_INFINITY;
+        }
+
+        for (int iteration = 0; iteration < nLocations; iteration++) {
+            int current = -1;
+            for (int i = 0; i < nLocations; i++) {
+                if (!done[i] && distance[i] < Double.POSITIVE_INFINITY && (current == -1 || distance[i] < distance[current])) {
+                    current = i;
+                }
+            }
+            if (current == -1) {
+                break;
+            }
+            done[current] = true;
+
+            boolean isBuyer = current >= 1 && current <= nV;
+            if (onlyBuyers && !isBuyer && distance[current] > 0) {
+                continue;
+            }
+            for (int next = 0; next < nLocations; next++) {
+                int from = reverse ? next : current;
+                int to = reverse ? current : next;
+                if (done[next] || from == to || to == 0 || from == end) {
+                    continue;
+                }
+                double candidate = distance[current] + weights.get(from, to);
+                if (candidate < distance[next]) {
+                    distance[next] = candidate;
+                }
+            }
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,258 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Solves many instances at the same time and writes a CSV line for every job as soon as it finishes. Instances are
+ * either every *.bin InstanceFile in a directory, or the lines of a manifest, each holding an InstanceFile or a
+ * buyers CSV and a charging stations CSV separated by a comma (paths relative to the manifest, depot at the origin).
+ * - VRP and ChargingVRP jobs run on a fixed pool of cores / CPLEX threads workers, and every model is limited to
+ * its share of CPLEX threads, so the parallel solves do not oversubscribe the cores.
+ * - Heuristic jobs run on virtual threads where the Java runtime offers them (one per job), otherwise on a pool of
+ * platform threads; either way at most --jobs of them (by default one per core) solve at the same time.
+ * Instances are only loaded by their job, so a batch of thousands does not have to fit in memory. The solvers' own
+ * output is discarded while the batch runs.
+ * Usage: BatchRunner --instances dir|manifest [--solver heuristic|vrp|chargingvrp] [--Q q] [--T t] [--jobs n]
+ * [--cplex-threads n per job] [--neighbours k of the Heuristic] [--out file.csv]
+ */
+public class BatchRunner {
+    private static final PrintStream console = System.out;
+    private static final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+    private static class Job {
+        private String id;
+        private File instanceFile; // null if the instance is a pair of CSV files
+        private File buyersFile;
+        private File stationsFile;
+    }
+
+    private static class Result {
+        private String id;
+        private int nV;
+        private int nC;
+        private double objective = Double.NaN;
+        private double wallTime;
+        private String status = "ok";
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        options.put("instances", null);
+        options.put("solver", "heuristic");
+        options.put("Q", "50");
+        options.put("T", "235");
+        options.put("jobs", "0");
+        options.put("cplex-threads", "1");
+        options.put("neighbours", "20");
+        options.put("out", "batch.csv");
+        for (int a = 0; a + 1 < args.length; a += 2) {
+            if (!args[a].startsWith("--") || !options.containsKey(args[a].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[a]);
+            }
+            options.put(args[a].substring(2), args[a + 1]);
+        }
+        if (options.get("instances") == null) {
+            throw new IllegalArgumentException("Missing --instances directory or manifest");
+        }
+
+        String solver = options.get("solver").toLowerCase(Locale.ROOT);
+        double Q = Double.parseDouble(options.get("Q"));
+        double T = Double.parseDouble(options.get("T"));
+        int cplexThreads = Math.max(1, Integer.parseInt(options.get("cplex-threads")));
+        int k = Integer.parseInt(options.get("neighbours"));
+        int cores = Runtime.getRuntime().availableProcessors();
+        boolean heuristic = solver.equals("heuristic");
+        if (!heuristic && !solver.equals("vrp") && !solver.equals("chargingvrp")) {
+            throw new IllegalArgumentException("Unknown solver " + solver);
+        }
+        int jobs = Integer.parseInt(options.get("jobs"));
+        if (jobs <= 0) {
+            jobs = heuristic ? cores : Math.max(1, cores / cplexThreads);
+        }
+
+        List<Job> batch = readJobs(new File(options.get("instances")));
+        ExecutorService executor;
+        Semaphore running = new Semaphore(jobs);
+        if (heuristic) {
+            executor = virtualThreadExecutor();
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(jobs);
+            }
+        } else {
+            executor = Executors.newFixedThreadPool(jobs);
+        }
+
+        System.setOut(discard);
+        try (PrintWriter out = new PrintWriter(new FileWriter(options.get("out")))) {
+            write(out, "instance,solver,buyers,stations,objective,wall time (s),status");
+            CompletionService<Result> completed = new ExecutorCompletionService<>(executor);
+            for (Job job : batch) {
+                completed.submit(() -> {
+                    running.acquire();
+                    try {
+                        return solve(job, solver, Q, T, cplexThreads, k);
+                    } finally {
+                        running.release();
+                    }
+                });
+            }
+            for (int done = 0; done < batch.size(); done++) {
+                try {
+                    Result result = completed.take().get();
+                    write(out, quote(result.id) + "," + solver + "," + result.nV + "," + result.nC + ","
+                            + (Double.isNaN(result.objective) ? "" : result.objective) + "," + result.wallTime + "," + result.status);
+                } catch (ExecutionException e) {
+                    write(out, ",,,,,,error: " + e.getCause().toString().replace(',', ';'));
+                }
+            }
+        } finally {
+            executor.shutdown();
+            System.setOut(console);
+        }
+    }
+
+    private static void write(PrintWriter out, String line) {
+        out.println(line);
+        out.flush();
+        console.println(line);
+    }
+
+    // Instance names of CSV pairs contain a comma
+    private static String quote(String field) {
+        return field.contains(",") ? '"' + field.replace("\"", "\"\"") + '"' : field;
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor, or null when the runtime has no (enabled) virtual threads
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static List<Job> readJobs(File instances) throws IOException {
+        List<Job> batch = new ArrayList<>();
+        if (instances.isDirectory()) {
+            File[] files = instances.listFiles((directory, name) -> name.endsWith(".bin"));
+            if (files == null) {
+                throw new IOException("Cannot list " + instances);
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                Job job = new Job();
+                job.id = file.getName();
+                job.instanceFile = file;
+                batch.add(job);
+            }
+            return batch;
+        }
+        File base = instances.getAbsoluteFile().getParentFile();
+        for (String line : Files.readAllLines(instances.toPath())) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split(",");
+            Job job = new Job();
+            job.id = line;
+            if (parts.length == 1) {
+                job.instanceFile = resolve(base, parts[0]);
+            } else {
+                job.buyersFile = resolve(base, parts[0]);
+                job.stationsFile = resolve(base, parts[1]);
+            }
+            batch.add(job);
+        }
+        return batch;
+    }
+
+    private static File resolve(File base, String path) {
+        File file = new File(path.trim());
+        return file.isAbsolute() ? file : new File(base, path.trim());
+    }
+
+    private static Result solve(Job job, String solver, double Q, double T, int cplexThreads, int k) {
+        Result result = new Result();
+        result.id = job.id;
+        long start = System.nanoTime();
+        try {
+            // Distances only for the solvers that use them, as VRP leaves the stations out
+            double[][] coordinates;
+            DistanceMatrix distances = null;
+            if (job.instanceFile != null) {
+                InstanceFile instance = InstanceFile.read(job.instanceFile);
+                coordinates = instance.getCoordinates();
+                if (!solver.equals("vrp")) {
+                    distances = instance.getDistances();
+                }
+                result.nV = instance.getNumBuyers();
+                result.nC = instance.getNumChargeStations();
+            } else {
+                double[][] buyers = InstanceLoader.readCoordinates(job.buyersFile);
+                double[][] stations = InstanceLoader.readCoordinates(job.stationsFile);
+                coordinates = InstanceLoader.layout(new double[buyers.length], buyers, stations);
+                if (!solver.equals("vrp")) {
+                    distances = DistanceMatrix.euclidean(coordinates);
+                }
+                result.nV = buyers[0].length;
+                result.nC = stations[0].length;
+            }
+            int nV = result.nV;
+            int nC = result.nC;
+
+            if (solver.equals("heuristic")) {
+                Heuristic heuristic = new Heuristic(distances, Q, T, nV, nC);
+                heuristic.setNeighbourListSize(k);
+                heuristic.solveModel();
+                result.objective = heuristic.getObjValue();
+            } else if (solver.equals("vrp")) {
+                VRP model = new VRP(DistanceMatrix.euclidean(withoutStations(coordinates, nV)), Q, T);
+                model.setThreads(cplexThreads);
+                model.solveModel();
+                result.objective = model.getObjValue();
+            } else {
+                ChargingVRP model = new ChargingVRP(distances, Q, T, nV, nC);
+                model.setThreads(cplexThreads);
+                model.solveModel();
+                result.objective = model.getObjValue();
+            }
+            if (Double.isNaN(result.objective)) {
+                result.status = "no optimal solution";
+            }
+        } catch (OutOfMemoryError e) {
+            result.status = "out of memory";
+        } catch (Exception | LinkageError e) {
+            result.status = "error: " + e.toString().replace(',', ';');
+        }
+        result.wallTime = (System.nanoTime() - start) / 1e9;
+        return result;
+    }
+
+    // The depot and buyers of an instance, as VRP has no charging stations
+    private static double[][] withoutStations(double[][] coordinates, int nV) {
+        double[][] buyers = new double[coordinates.length][nV + 2];
+        int end = coordinates[0].length - 1;
+        for (int dimension = 0; dimension < coordinates.length; dimension++) {
+            System.arraycopy(coordinates[dimension], 0, buyers[dimension], 0, nV + 1);
+            buyers[dimension][nV + 1] = coordinates[dimension][end];
+        }
+        return buyers;
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * Micro benchmarks of the routing hot paths on uniformly random generated instances of increasing size, to compare
+ * before and after a change. Every benchmark is warmed up first and then timed over MEASUREMENTS iterations of at
+ * least ITERATION_TIME seconds each; the mean and best time per operation are printed as CSV. Output of the code
+ * under test is discarded while it runs.
+ * Usage: Benchmarks [sizes, e.g. 20,100,500] [part of a benchmark name to only run those]
+ */
+public class Benchmarks {
+    private static final double WARMUP_TIME = 1;
+    private static final double ITERATION_TIME = 0.5;
+    private static final int MEASUREMENTS = 5;
+    private static final double MAX_CHARGE = 50;
+    private static final double MAX_TIME = 235;
+
+    private static final PrintStream console = System.out;
+    private static final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+    private static volatile double sink; // results are written here so the work cannot be optimised away
+
+    private interface Operation {
+        double run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {20, 100, 500, 2000};
+        if (args.length > 0) {
+            String[] parts = args[0].split(",");
+            sizes = new int[parts.length];
+            for (int s = 0; s < parts.length; s++) {
+                sizes[s] = Integer.parseInt(parts[s].trim());
+            }
+        }
+        String filter = args.length > 1 ? args[1] : "";
+
+        console.println("benchmark,buyers,stations,mean ns/op,best ns/op,operations");
+        for (int nV : sizes) {
+            int nC = Math.max(6, nV / 4);
+            double[][] coordinates = new InstanceGenerator(MAX_CHARGE, MAX_TIME, nV).generate(InstanceGenerator.Layout.RANDOM, nV, nC);
+            DistanceMatrix distances = DistanceMatrix.euclidean(coordinates);
+            ArcAttributes arcs = ArcAttributes.of(distances);
+            RouteEvaluator evaluator = new RouteEvaluator(distances, arcs.getCosts(), arcs.getCharges(), arcs.getTimes(), MAX_CHARGE, MAX_TIME, nV, nC);
+
+            // Routes of a constructed solution, the typical input of the route checks
+            Heuristic heuristic = new Heuristic(distances, MAX_CHARGE, MAX_TIME, nV, nC);
+            heuristic.setLocalSearch(false);
+            System.setOut(discard);
+            heuristic.solveModel();
+            System.setOut(console);
+            int[][] routes = heuristic.getRoutes();
+            double[][][] segments = stationSegments(routes, arcs, nV);
+
+            if ("distance matrix".contains(filter)) {
+                run("distance matrix", nV, nC, () -> DistanceMatrix.euclidean(coordinates).get(0, nV));
+            }
+            if ("arc attributes".contains(filter)) {
+                run("arc attributes", nV, nC, () -> ArcAttributes.compute(distances).getTimes().get(0, nV));
+            }
+            if ("isFeasible".contains(filter)) {
+                run("isFeasible", nV, nC, () -> {
+                    double feasible = 0;
+                    for (int[] route : routes) {
+                        feasible += evaluator.isFeasible(route, route.length) ? 1 : 0;
+                    }
+                    return feasible;
+                });
+            }
+            if ("computeTime".contains(filter)) {
+                run("computeTime", nV, nC, () -> {
+                    double time = 0;
+                    for (int[] route : routes) {
+                        time += evaluator.computeTime(route, route.length);
+                    }
+                    return time;
+                });
+            }
+            if ("routeIsFeasible".contains(filter)) {
+                run("routeIsFeasible", nV, nC, () -> {
+                    double feasible = 0;
+                    for (double[][] segment : segments) {
+                        feasible += new ConvexQuadraticProgram(segment[0], MAX_CHARGE, segment[1], MAX_TIME).routeIsFeasible() ? 1 : 0;
+                    }
+                    return feasible;
+                });
+            }
+            // Savings list construction, station insertion and getRedundantStations are private, so they are timed
+            // through the construction phase, with every pair of tours and with granular neighbour lists. A model
+            // build creates the variables and adds the rows, and closes the model again
+            if ("construction".contains(filter)) {
+                run("construction", nV, nC, () -> construct(distances, nV, nC, 0));
+            }
+            if ("construction k=20".contains(filter)) {
+                run("construction k=20", nV, nC, () -> construct(distances, nV, nC, 20));
+            }
+            if ("VRP build".contains(filter)) {
+                DistanceMatrix buyersOnly = DistanceMatrix.euclidean(new InstanceGenerator(MAX_CHARGE, MAX_TIME, nV).generate(InstanceGenerator.Layout.RANDOM, nV, 0));
+                runModel("VRP build", nV, 0, () -> {
+                    VRP model = new VRP(buyersOnly, MAX_CHARGE, MAX_TIME);
+                    try {
+                        model.buildModel();
+                    } finally {
+                        model.close();
+                    }
+                    return 0;
+                });
+            }
+            if ("ChargingVRP build".contains(filter)) {
+                runModel("ChargingVRP build", nV, nC, () -> {
+                    ChargingVRP model = new ChargingVRP(distances, MAX_CHARGE, MAX_TIME, nV, nC);
+                    try {
+                        model.buildModel();
+                    } finally {
+                        model.close();
+                    }
+                    return 0;
+                });
+            }
+        }
+    }
+
+    private static double construct(DistanceMatrix distances, int nV, int nC, int k) {
+        Heuristic heuristic = new Heuristic(distances, MAX_CHARGE, MAX_TIME, nV, nC);
+        heuristic.setNeighbourListSize(k);
+        heuristic.setLocalSearch(false);
+        heuristic.solveModel();
+        return heuristic.getObjValue();
+    }
+
+    // Charge used and time driven between consecutive stations of every route, as ChargingVRP passes them to the
+    // ConvexQuadraticProgram
+    private static double[][][] stationSegments(int[][] routes, ArcAttributes arcs, int nV) {
+        double[][][] segments = new double[routes.length][][];
+        for (int r = 0; r < routes.length; r++) {
+            int[] route = routes[r];
+            ArrayList<Double> charges = new ArrayList<>();
+            ArrayList<Double> times = new ArrayList<>();
+            double charge = 0;
+            double time = 0;
+            for (int p = 1; p < route.length; p++) {
+                charge += arcs.getCharges().get(route[p - 1], route[p]);
+                time += arcs.getTimes().get(route[p - 1], route[p]);
+                if (route[p] > nV) {
+                    charges.add(charge);
+                    times.add(time);
+                    charge = 0;
+                    time = 0;
+                }
+            }
+            segments[r] = new double[2][charges.size()];
+            for (int s = 0; s < charges.size(); s++) {
+                segments[r][0][s] = charges.get(s);
+                segments[r][1][s] = times.get(s);
+            }
+        }
+        return segments;
+    }
+
+    // Model builds need the CPLEX libraries; they are reported as skipped where those cannot be loaded
+    private static void runModel(String name, int nV, int nC, Operation operation) {
+        try {
+            run(name, nV, nC, operation);
+        } catch (Exception | LinkageError e) {
+            System.setOut(console);
+            console.println(name + "," + nV + "," + nC + ",skipped: " + e + ",,");
+        }
+    }
+
+    private static void run(String name, int nV, int nC, Operation operation) throws Exception {
+        System.setOut(discard);
+        try {
+            long warmupEnd = System.nanoTime() + (long) (WARMUP_TIME * 1e9);
+            while (System.nanoTime() < warmupEnd) {
+                sink = operation.run();
+            }
+            double total = 0;
+            long operations = 0;
+            double best = Double.POSITIVE_INFINITY;
+            for (int m = 0; m < MEASUREMENTS; m++) {
+                long start = System.nanoTime();
+                long iterationEnd = start + (long) (ITERATION_TIME * 1e9);
+                long count = 0;
+                long now;
+                do {
+                    sink = operation.run();
+                    count++;
+                    now = System.nanoTime();
+                } while (now < iterationEnd);
+                total += now - start;
+                operations += count;
+                best = Math.min(best, (double) (now - start) / count);
+            }
+            System.setOut(console);
+            console.println(name + "," + nV + "," + nC + "," + total / operations + "," + best + "," + operations);
+        } finally {
+            System.setOut(console);
+        }
+    }
+}
@@ -1,154 +1,246 @@
 import ilog.concert.IloException;
-import ilog.concert.IloNumExpr;
+import ilog.concert.IloLinearNumExpr;
 import ilog.concert.IloNumVar;
 import ilog.cplex.IloCplex;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ChargingVRP {
     private int nLocations;
     private int nV;
     private int nC;
-    private double[][] d_matrix;
-    private double[][] c_matrix;
-    private double[][] q_matrix;
-    private double[][] t_matrix;
+    private DistanceMatrix d_matrix;
+    private DistanceMatrix c_matrix;
+    private DistanceMatrix q_matrix;
+    private DistanceMatrix t_matrix;
     private double Q;
     private double T;
     private IloCplex cplex;
     private IloNumVar[][] z_matrix;
     private IloNumVar[] eta_vector;
     private IloNumVar[] psi_vector;
+    private ArcFilter arcFilter;
+    private ModelBuilder builder;
+    private double solveTime;
+    private RouteFeasibilityCache routeCache;
+    private boolean useLazyConstraints;
+    private boolean useWarmStart;
+    private boolean built; // true once buildModel has added the objective and constraints
+    private long nodes;
+    private double objective = Double.NaN;
+    private CutLoopSummary summary = new CutLoopSummary();
+
+    // Anytime mode: improved feasible solutions are passed to the listener, and the solve stops at the deadline
+    private double deadline; // seconds after the start of solveModel, 0 for none
+    private IncumbentListener listener;
+    private long startTime;
+    private int[][] incumbent; // best feasible routes found, each from depot 0 to depot n-1
+    private double incumbentCost = Double.POSITIVE_INFINITY;
+    private double gap = Double.NaN;
 
     public ChargingVRP(double[][] distances, double maxElectricity, double maxTime, int numLocations, int numChargeStations) throws IloException {
+        this(DistanceMatrix.of(distances), maxElectricity, maxTime, numLocations, numChargeStations);
+    }
+
+    public ChargingVRP(DistanceMatrix distances, double maxElectricity, double maxTime, int numLocations, int numChargeStations) throws IloException {
         // Initialize the cplex solver
         cplex = new IloCplex();
 
-        nLocations = distances.length;
+        nLocations = distances.size();
         d_matrix = distances;
         Q = maxElectricity;
         T = maxTime;
         nV = numLocations;
         nC = numChargeStations;
+        routeCache = new RouteFeasibilityCache(10000);
 
-        c_matrix = new double[nLocations][nLocations];
-        q_matrix = new double[nLocations][nLocations];
-        t_matrix = new double[nLocations][nLocations];
+        // Costs, required charge, and time, between locations, shared by every solver on these distances
+        ArcAttributes arcs = ArcAttributes.of(d_matrix);
+        c_matrix = arcs.getCosts();
+        q_matrix = arcs.getCharges();
+        t_matrix = arcs.getTimes();
 
-        // Creating the decision variables: matrix x and vector y
-        z_matrix = new IloNumVar[nLocations][nLocations];
-        eta_vector = new IloNumVar[nLocations];
-        psi_vector = new IloNumVar[nLocations];
+        // Creating the decision variables: matrix x and vector y, only for arcs that can be part of a route
+        arcFilter = new ArcFilter(t_matrix, q_matrix, Q, T, nV);
+        System.out.println(arcFilter);
+        builder = new ModelBuilder(cplex, arcFilter, nLocations);
+        z_matrix = builder.getArcMatrix();
 
-        for (int i = 0; i < nLocations; i++) {
-            for (int j = 0; j < nLocations; j++) {
-                z_matrix[i][j] = cplex.boolVar("Arc (" + i + "," + j + ")");
-            }
-        }
+        builder.startTimer();
+        eta_vector = cplex.numVarArray(nLocations, 0, Q);
+        psi_vector = cplex.numVarArray(nLocations, 0, T);
+        builder.stopTimer();
+    }
 
-        // Calculate costs, required charge, and time, between locations
-        for (int i = 0; i < nLocations; i++) {
-            for (int j = 0; j < nLocations; j++) {
-                c_matrix[i][j] = 1 + d_matrix[i][j];
-                q_matrix[i][j] = 10 + Math.pow(d_matrix[i][j], 0.75);
-                t_matrix[i][j] = 5 + Math.pow(d_matrix[i][j], 0.9);
+    /**
+     * @param warmStart True to run the Heuristic before solving and use its routes as MIP start
+     */
+    public void setWarmStart(boolean warmStart) {
+        useWarmStart = warmStart;
+    }
+
+    /**
+     * Use routes (e.g. from Heuristic.getRoutes()) as MIP start. The model recharges fully at every station, so
+     * routes in which the charge used between two charge points exceeds Q, that exceed the travel time limit, or that
+     * use a pruned arc are left out, and CPLEX repairs the rest of the start.
+     *
+     * @param routes Routes from depot 0 to depot n-1
+     */
+    public void addWarmStart(int[][] routes) throws IloException {
+        int end = nLocations - 1;
+        double[] eta = new double[nLocations];
+        double[] psi = new double[nLocations];
+        for (int j = nV + 1; j <= nV + nC; j++) {
+            eta[j] = Q;
+            psi[j] = t_matrix.get(0, j);
+        }
+        eta[0] = Q;
+        List<int[]> valid = new ArrayList<>();
+        double startObjective = 0;
+        for (int[] route : routes) {
+            // Charge left since the last charge point and cumulative time at every location
+            double[] level = new double[route.length];
+            double[] time = new double[route.length];
+            double cost = 0;
+            boolean fits = builder.hasArcs(route);
+            level[0] = Q;
+            for (int p = 1; p < route.length; p++) {
+                level[p] = level[p - 1] - q_matrix.get(route[p - 1], route[p]);
+                time[p] = time[p - 1] + t_matrix.get(route[p - 1], route[p]);
+                cost += c_matrix.get(route[p - 1], route[p]);
+                fits &= level[p] >= 0;
+                if (route[p] > nV) {
+                    level[p] = Q;
+                }
+            }
+            fits &= time[route.length - 1] <= T;
+            if (!fits) {
+                continue;
+            }
+            valid.add(route);
+            startObjective += cost;
+            for (int p = 1; p < route.length - 1; p++) {
+                eta[route[p]] = level[p];
+                psi[route[p]] = time[p];
             }
+            psi[end] = Math.max(psi[end], time[route.length - 1]);
         }
+        builder.addMIPStart(valid, new IloNumVar[][]{eta_vector, psi_vector}, new double[][]{eta, psi}, valid.size() == routes.length);
+        System.out.println("Warm start: " + valid.size() + " of " + routes.length + " routes, objective = " + startObjective);
+    }
 
-        for (int i = 0; i < nLocations; i++) {
-            eta_vector[i] = cplex.numVar(0, Q);
-            psi_vector[i] = cplex.numVar(0, T);
-        }
+    /**
+     * @return the metrics of every iteration of the cut loop of solveModel
+     */
+    public CutLoopSummary getSummary() {
+        return summary;
     }
 
-    public void solveModel() throws IloException {
-        // Create the objective function
-        IloNumExpr obj = cplex.constant(0);
-        for (int i = 0; i < nLocations; i++) {
-            for (int j = 0; j < nLocations; j++) {
-                obj = cplex.sum(obj, cplex.prod(c_matrix[i][j], z_matrix[i][j]));
-            }
-        }
-        cplex.addMinimize(obj);
+    /**
+     * Limit the threads of CPLEX, e.g. when several models are solved at the same time.
+     *
+     * @param threads Number of threads CPLEX may use, 0 (the default) to let CPLEX decide
+     */
+    public void setThreads(int threads) throws IloException {
+        cplex.setParam(IloCplex.Param.Threads, threads);
+    }
 
-        // Disallows travel to and form the same location
-        for (int i = 0; i < nLocations; i++) {
-            cplex.addEq(z_matrix[i][i], 0);
-        }
-        cplex.addEq(z_matrix[0][nLocations - 1], 0);
+    /**
+     * Stop solving once the deadline has passed and return the best feasible solution found, which is the routes of
+     * the warm start if CPLEX found no better one in time. Every solve of CPLEX is limited to the time left.
+     *
+     * @param seconds Deadline after the start of solveModel, 0 (the default) for none
+     */
+    public void setDeadline(double seconds) {
+        deadline = seconds;
+    }
+
+    /**
+     * Pass every improved feasible solution to the listener while solveModel runs. Incumbents of CPLEX are only
+     * passed on when all their routes have a feasible charging plan, as the model without every route cut can find
+     * routes that do not. An incumbent callback is used for this, which turns off the dynamic search of CPLEX.
+     *
+     * @param listener Receives the improved solutions, null (the default) for none
+     */
+    public void setIncumbentListener(IncumbentListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the objective of the optimal solution found by solveModel or, with a deadline, of the best solution
+     * found when it passed; NaN if none was found
+     */
+    public double getObjValue() {
+        return objective;
+    }
+
+    /**
+     * @return the relative gap between getObjValue and the best bound of CPLEX, 0 if the solution is optimal and NaN
+     * if it is not known
+     */
+    public double getGap() {
+        return gap;
+    }
+
+    /**
+     * @return the routes of the solution of getObjValue, each from depot 0 to depot n-1, null if none was found
+     */
+    public int[][] getRoutes() {
+        return Double.isNaN(objective) ? null : incumbent;
+    }
+
+    /**
+     * Add the objective and the constraints to the model. solveModel does this itself if it has not been done, so it
+     * only needs to be called to build the model without solving it, e.g. to time the build.
+     */
+    public void buildModel() throws IloException {
+        built = true;
+        builder.startTimer();
+
+        // Create the objective function
+        cplex.addMinimize(builder.weightedArcs(c_matrix));
 
         // Visit constraints for buyers (2b)
         for (int i = 1; i <= nV; i++) {
-            IloNumExpr LHS2b = cplex.constant(0);
-            for (int j = 1; j < nLocations; j++) {
-                if (j != i) {
-                    LHS2b = cplex.sum(LHS2b, z_matrix[i][j]);
-                }
-            }
-            cplex.addEq(LHS2b, 1);
+            cplex.addEq(builder.addOutgoing(cplex.linearNumExpr(), 1, i, 1, nLocations - 1), 1);
         }
 
         // Visit constraints for charging stations (2c)
         for (int i = nV + 1; i <= nV + nC; i++) {
-            IloNumExpr LHS2c = cplex.constant(0);
-            for (int j = 1; j < nLocations; j++) {
-                if (j != i) {
-                    LHS2c = cplex.sum(LHS2c, z_matrix[i][j]);
-                }
-            }
-            cplex.addLe(LHS2c, 1);
+            cplex.addLe(builder.addOutgoing(cplex.linearNumExpr(), 1, i, 1, nLocations - 1), 1);
         }
 
         // Constraints to ensure same route (2d)
         for (int k = 1; k <= nV + nC; k++) {
-            IloNumExpr LHS2d = cplex.constant(0);
-            for (int i = 0; i <= nV + nC; i++) {
-                if (i != k) {
-                    LHS2d = cplex.sum(LHS2d, z_matrix[i][k]);
-                }
-            }
-
-            for (int j = 1; j <= nV + nC + 1; j++) {
-                if (j != k) {
-                    LHS2d = cplex.diff(LHS2d, z_matrix[k][j]);
-                }
-            }
+            IloLinearNumExpr LHS2d = builder.addIncoming(cplex.linearNumExpr(), 1, k, 0, nV + nC);
+            builder.addOutgoing(LHS2d, -1, k, 1, nV + nC + 1);
             cplex.addEq(LHS2d, 0);
         }
 
         // Time constraints to disallow subtours (2e)
-        for (int i = 0; i < nLocations; i++) {
-            for (int j = 0; j < nLocations; j++) {
-                if (i != j) {
-                    IloNumExpr RHS_time = cplex.diff(cplex.sum(psi_vector[i], cplex.prod(t_matrix[i][j], z_matrix[i][j])),
-                            cplex.prod(T, cplex.diff(1, z_matrix[i][j])));
-                    cplex.addGe(psi_vector[j], RHS_time);
-                }
-            }
-        }
+        builder.addPropagation(psi_vector, t_matrix, T, 0, nLocations - 1, true);
 
         // Constraints to limit time (2f)
         for (int j = 1; j < nLocations - 1; j++) {
-            cplex.addLe(t_matrix[0][j], psi_vector[j]);
-            cplex.addLe(psi_vector[j], T - t_matrix[j][nLocations - 1]);
+            cplex.addLe(t_matrix.get(0, j), psi_vector[j]);
+            cplex.addLe(psi_vector[j], T - t_matrix.get(j, nLocations - 1));
         }
 
         // Charge constraints to disallow subtours (2g)
-        for (int i = 0; i < nLocations; i++) {
-            for (int j = 0; j <= nV; j++) {
-                if (i != j) {
-                    IloNumExpr RHS_charge = cplex.sum(cplex.diff(eta_vector[i], cplex.prod(q_matrix[i][j], z_matrix[i][j])),
-                            cplex.prod(Q, cplex.diff(1, z_matrix[i][j])));
-                    cplex.addLe(eta_vector[j], RHS_charge);
-                }
-            }
-        }
+        builder.addPropagation(eta_vector, q_matrix, Q, 0, nV, false);
 
         // Constraints to limit charge (2h)
         for (int j = 1; j <= nV; j++) {
             for (int k = nV + 1; k < nLocations; k++) {
-                cplex.addGe(eta_vector[j], cplex.prod(q_matrix[j][k], z_matrix[j][k]));
+                if (z_matrix[j][k] != null) {
+                    IloLinearNumExpr LHS2h = cplex.linearNumExpr();
+                    LHS2h.addTerm(1, eta_vector[j]);
+                    LHS2h.addTerm(-q_matrix.get(j, k), z_matrix[j][k]);
+                    cplex.addGe(LHS2h, 0);
+                }
             }
         }
 
@@ -157,128 +249,385 @@ public class ChargingVRP {
             cplex.addEq(eta_vector[j], Q);
         }
         cplex.addEq(eta_vector[0], Q);
+        builder.stopTimer();
+    }
 
-        int cuts = 0;
-
-        while (cuts >= 0) {
-            cuts = 0;
-            cplex.setOut(null);
-            cplex.solve();
-            ArrayList<IloNumExpr> LHS_new_cuts = new ArrayList<>();
-            ArrayList<Integer> RHS_new_cuts = new ArrayList<>();
-
-            // Query the solution
-            if (cplex.getStatus() == IloCplex.Status.Optimal) {
-                for (int i = 0; i < nLocations; i++) {
-                    if (cplex.getValue(z_matrix[0][i]) >= 0.5) {
-                        int from = 0;
-                        ArrayList<Integer> route = new ArrayList<>();
-                        int to = i;
-                        double charge = 0;
-                        double time = 0;
-                        ArrayList<Double> zeta_vector = new ArrayList<>();
-                        ArrayList<Double> tau_vector = new ArrayList<>();
-                        while (to < nLocations) {
-                            if (cplex.getValue(z_matrix[from][to]) >= 0.5) {
-                                route.add(from);
-                                charge += q_matrix[from][to];
-                                time += t_matrix[from][to];
-                                if (to >= 21 && to <= 27) {
-                                    zeta_vector.add(charge);
-                                    charge = 0;
-                                    tau_vector.add(time);
-                                    time = 0;
-                                }
-                                from = to;
-                                to = 0;
-                            } else {
-                                to++;
-                            }
-                        }
-                        route.add(from);
-                        ConvexQuadraticProgram step2 = new ConvexQuadraticProgram(zeta_vector, Q, tau_vector, T);
-                        if (!step2.routeIsFeasible()) {
-                            cuts++;
-                            IloNumExpr LHS_new_cut = cplex.constant(0);
-                            for (int j = 0; j < route.size() - 1; j++) {
-                                LHS_new_cut = cplex.sum(LHS_new_cut, z_matrix[route.get(j)][route.get(j + 1)]);
-                            }
-                            cuts++;
-                            IloNumExpr LHS_new_cut_reverse = cplex.constant(0);
-                            LHS_new_cut_reverse = cplex.sum(LHS_new_cut_reverse, z_matrix[route.get(0)][route.get(route.size() - 2)]);
-                            for (int j = route.size() - 3; j > 0; j--) {
-                                LHS_new_cut_reverse = cplex.sum(LHS_new_cut_reverse, z_matrix[route.get(j + 1)][route.get(j)]);
-                            }
-                            LHS_new_cut_reverse = cplex.sum(LHS_new_cut_reverse, z_matrix[route.get(1)][route.get(route.size() - 1)]);
-                            LHS_new_cuts.add(LHS_new_cut);
-                            LHS_new_cuts.add(LHS_new_cut_reverse);
-                            RHS_new_cuts.add(route.size() - 2);
-                            RHS_new_cuts.add(route.size() - 2);
-                        }
-                    }
+    /**
+     * Release the CPLEX model of a model that is not solved; solveModel closes it when it is done.
+     */
+    public void close() {
+        cplex.close();
+    }
+
+    public void solveModel() throws IloException {
+        startTime = System.nanoTime();
+        boolean anytime = deadline > 0 || listener != null;
+
+        if (useWarmStart) {
+            System.out.println("Warm start heuristic");
+            Heuristic heuristic = new Heuristic(d_matrix, Q, T, nV, nC);
+            if (deadline > 0) {
+                // Only the time that is left, at least a positive instant as 0 means no deadline
+                heuristic.setDeadline(Math.max(Double.MIN_VALUE, deadline - (System.nanoTime() - startTime) / 1e9));
+            }
+            heuristic.solveModel();
+            addWarmStart(heuristic.getRoutes());
+            // Only report the heuristic solution when every route has a feasible charging plan, as IncumbentReporter
+            if (anytime && getInfeasibleRoutes(toLists(heuristic.getRoutes()), null).isEmpty()) {
+                report(heuristic.getRoutes(), heuristic.getObjValue(), Double.NaN);
+            }
+        }
+
+        if (!built) {
+            buildModel();
+        }
+
+        int totalCuts = 0;
+        cplex.setOut(null);
+        if (anytime) {
+            cplex.use(new IncumbentReporter());
+        }
+
+        if (useLazyConstraints) {
+            // Check the routes of every integer solution inside a single search tree
+            RouteCutCallback callback = new RouteCutCallback(cplex.getNrows(), cplex.getNcols(), cplex.getNNZs());
+            cplex.use(callback);
+            callback.lastCheck.set(System.nanoTime());
+            solve();
+            totalCuts = callback.cuts.get();
+        } else {
+            // Re-solve the model until none of the routes needs to be cut off
+            int cuts = 1;
+            while (cuts > 0) {
+                cuts = 0;
+                CutLoopSummary.Iteration iteration = summary.startIteration();
+                double seconds = solve();
+                boolean optimal = cplex.getStatus() == IloCplex.Status.Optimal;
+                iteration.setSolve(seconds, getBestBound(), optimal ? cplex.getObjValue() : Double.NaN,
+                        cplex.getNrows(), cplex.getNcols(), cplex.getNNZs());
+                if (!optimal) {
+                    summary.finish(iteration);
+                    break;
+                }
+                for (ArrayList<Integer> route : getInfeasibleRoutes(getArcValues(), iteration)) {
+                    cplex.addLe(getRouteCut(route, false), route.size() - 2);
+                    cplex.addLe(getRouteCut(route, true), route.size() - 2);
+                    cuts += 2;
                 }
+                iteration.setCutsAdded(cuts);
+                summary.finish(iteration);
+                totalCuts += cuts;
                 System.out.println();
-                if (cuts > 0) {
-                    for (int i = 0; i < LHS_new_cuts.size(); i++) {
-                        cplex.addLe(LHS_new_cuts.get(i), RHS_new_cuts.get(i));
-                    }
-                } else {
-                    System.out.println("Found optimal solution!");
-                    System.out.println("Objective = " + cplex.getObjValue());
-
-                    int route = 0;
-                    for (int i = 0; i < nLocations; i++) {
-                        if (cplex.getValue(z_matrix[0][i]) >= 0.5) {
-                            route++;
-                            System.out.print("Route " + route + ": 0");
-                            int from = 0;
-                            int to = i;
-                            List<Double> totalChargedAtStations = new ArrayList<>();
-                            double totalDistance = 0;
-                            double totalCost = 0;
-                            double totalTravellingTime = 0;
-                            double totalCharge = 0;
-                            while (to < nLocations) {
-                                if (cplex.getValue(z_matrix[from][to]) >= 0.5) {
-                                    totalDistance += d_matrix[from][to];
-                                    totalCost += c_matrix[from][to];
-                                    totalTravellingTime += t_matrix[from][to];
-                                    totalCharge += q_matrix[from][to];
-                                    if (to >= 21 && to <= 27) {
-                                        totalChargedAtStations.add(totalCharge);
-                                    }
-                                    System.out.print(", " + to);
-                                    from = to;
-                                    to = 0;
-                                } else {
-                                    to++;
-                                }
-                            }
-                            System.out.println();
-                            System.out.println("Total distance = " + totalDistance);
-                            System.out.println("Total cost = " + totalCost);
-                            System.out.println("Total travelling time = " + totalTravellingTime);
-                            System.out.println("Total charge = " + totalCharge);
-                            if (totalChargedAtStations.size() > 1) {
-                                System.out.print("Total used charge between stations (including depot at end): ");
-                                Double previouslyChargedAtStations = totalChargedAtStations.get(0);
-                                for (int j = 1; j < totalChargedAtStations.size(); j++) {
-                                    System.out.print(previouslyChargedAtStations + " ");
-                                    previouslyChargedAtStations = totalChargedAtStations.get(j) - totalChargedAtStations.get(j-1);
-                                }
-                                System.out.println();
-                            }
-                            System.out.println();
-                        }
+            }
+        }
+        double wallTime = (System.nanoTime() - startTime) / 1e9;
+
+        // Query the solution
+        if (cplex.getStatus() == IloCplex.Status.Optimal) {
+            System.out.println("Found optimal solution!");
+            objective = cplex.getObjValue();
+            gap = 0;
+            incumbent = toArray(extractRoutes(getArcValues()));
+            System.out.println("Objective = " + objective);
+            printRoutes(incumbent);
+        } else if (deadline > 0 && incumbent != null) {
+            System.out.println("Deadline reached, best solution found:");
+            objective = incumbentCost;
+            // The bound of the last solve also holds for the model with every route cut; without one, keep the gap
+            // of the incumbent
+            double bound = getBestBound();
+            if (!Double.isNaN(bound)) {
+                gap = relativeGap(objective, bound);
+            }
+            System.out.println("Objective = " + objective);
+            System.out.println("Gap = " + gap);
+            printRoutes(incumbent);
+        } else {
+            System.out.println("No optimal solution found");
+        }
+        System.out.println("Mode = " + (useLazyConstraints ? "lazy constraints" : "iterative"));
+        System.out.println("Cuts added = " + totalCuts);
+        System.out.println("Build time = " + builder.getBuildTime() + " s");
+        System.out.println("Solve time = " + solveTime + " s");
+        System.out.println("Nodes = " + nodes);
+        System.out.println("Cut loop: " + summary);
+        System.out.println("Total time = " + wallTime + " s");
+        System.out.println("Route cache: " + routeCache.getHits() + " hits, " + routeCache.getMisses() + " misses");
+
+        // Close the model
+        close();
+    }
+
+    // Best bound of the last solve, NaN if CPLEX has none, e.g. when the deadline passed before the root node was solved
+    private double getBestBound() {
+        try {
+            return cplex.getBestObjValue();
+        } catch (IloException e) {
+            return Double.NaN;
+        }
+    }
+
+    // Solve the model, within the time left until the deadline, and return the time it took
+    private double solve() throws IloException {
+        if (deadline > 0) {
+            cplex.setParam(IloCplex.Param.TimeLimit, Math.max(0, deadline - (System.nanoTime() - startTime) / 1e9));
+        }
+        long solveStart = System.nanoTime();
+        cplex.solve();
+        double seconds = (System.nanoTime() - solveStart) / 1e9;
+        solveTime += seconds;
+        nodes += cplex.getNnodes64();
+        return seconds;
+    }
+
+    /**
+     * Choose between checking routes in a lazy constraint callback (one search tree) and re-solving the model after
+     * adding the cuts of every round.
+     *
+     * @param lazy True to use the lazy constraint callback
+     */
+    public void setLazyConstraints(boolean lazy) {
+        useLazyConstraints = lazy;
+    }
+
+    private double[][] getArcValues() throws IloException {
+        return toArcMatrix(cplex.getValues(builder.getArcVariables()));
+    }
+
+    private double[][] toArcMatrix(double[] values) {
+        double[][] z = new double[nLocations][nLocations];
+        for (int arc = 0; arc < values.length; arc++) {
+            z[builder.getArcFrom(arc)][builder.getArcTo(arc)] = values[arc];
+        }
+        return z;
+    }
+
+    // Routes leaving the depot in a solution, each from depot 0 to depot n-1
+    private List<ArrayList<Integer>> extractRoutes(double[][] z) {
+        List<ArrayList<Integer>> routes = new ArrayList<>();
+        for (int i = 0; i < nLocations; i++) {
+            if (z[0][i] >= 0.5) {
+                int from = 0;
+                ArrayList<Integer> route = new ArrayList<>();
+                int to = i;
+                while (to < nLocations) {
+                    if (z[from][to] >= 0.5) {
+                        route.add(from);
+                        from = to;
+                        to = 0;
+                    } else {
+                        to++;
                     }
-                    break;
                 }
+                route.add(from);
+                routes.add(route);
+            }
+        }
+        return routes;
+    }
+
+    private static int[][] toArray(List<ArrayList<Integer>> routes) {
+        int[][] array = new int[routes.size()][];
+        for (int r = 0; r < array.length; r++) {
+            array[r] = routes.get(r).stream().mapToInt(Integer::intValue).toArray();
+        }
+        return array;
+    }
+
+    private static List<ArrayList<Integer>> toLists(int[][] routes) {
+        List<ArrayList<Integer>> lists = new ArrayList<>();
+        for (int[] route : routes) {
+            ArrayList<Integer> list = new ArrayList<>();
+            for (int location : route) {
+                list.add(location);
+            }
+            lists.add(list);
+        }
+        return lists;
+    }
+
+    // Return the routes of a solution for which no feasible charging plan exists; iteration is null for checks
+    // outside the cut loop
+    private List<ArrayList<Integer>> getInfeasibleRoutes(double[][] z, CutLoopSummary.Iteration iteration) {
+        return getInfeasibleRoutes(extractRoutes(z), iteration);
+    }
+
+    private synchronized List<ArrayList<Integer>> getInfeasibleRoutes(List<ArrayList<Integer>> routes, CutLoopSummary.Iteration iteration) {
+        List<ArrayList<Integer>> infeasibleRoutes = new ArrayList<>();
+        for (ArrayList<Integer> route : routes) {
+            // Charge used and travel time between charge points
+            double charge = 0;
+            double time = 0;
+            ArrayList<Double> zeta_vector = new ArrayList<>();
+            ArrayList<Double> tau_vector = new ArrayList<>();
+            for (int p = 1; p < route.size(); p++) {
+                int from = route.get(p - 1);
+                int to = route.get(p);
+                charge += q_matrix.get(from, to);
+                time += t_matrix.get(from, to);
+                if (to > nV) {
+                    zeta_vector.add(charge);
+                    charge = 0;
+                    tau_vector.add(time);
+                    time = 0;
+                }
+            }
+            RouteCheckEvent event = new RouteCheckEvent();
+            event.begin();
+            long checkStart = System.nanoTime();
+            RouteFeasibilityCache.Entry cached = routeCache.get(route);
+            boolean feasible;
+            if (cached == null) {
+                ConvexQuadraticProgram step2 = new ConvexQuadraticProgram(zeta_vector, Q, tau_vector, T);
+                feasible = step2.routeIsFeasible();
+                routeCache.put(route, feasible, step2.getChargingAmounts());
             } else {
-                System.out.println("No optimal solution found");
+                feasible = cached.isFeasible();
+            }
+            if (iteration != null) {
+                iteration.addRouteCheck(cached != null, (System.nanoTime() - checkStart) / 1e9);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.locations = route.size();
+                event.stations = zeta_vector.size() - 1;
+                event.cached = cached != null;
+                event.feasible = feasible;
+                event.commit();
+            }
+            if (!feasible) {
+                infeasibleRoutes.add(route);
             }
         }
+        return infeasibleRoutes;
+    }
 
-        // Close the model
-        cplex.close();
+    // Left-hand side of the cut forbidding the route, or the route driven in reverse (pruned arcs are left out)
+    private IloLinearNumExpr getRouteCut(ArrayList<Integer> route, boolean reverse) throws IloException {
+        IloLinearNumExpr LHS_new_cut = cplex.linearNumExpr();
+        if (!reverse) {
+            for (int j = 0; j < route.size() - 1; j++) {
+                addArc(LHS_new_cut, route.get(j), route.get(j + 1));
+            }
+        } else {
+            addArc(LHS_new_cut, route.get(0), route.get(route.size() - 2));
+            for (int j = route.size() - 3; j > 0; j--) {
+                addArc(LHS_new_cut, route.get(j + 1), route.get(j));
+            }
+            addArc(LHS_new_cut, route.get(1), route.get(route.size() - 1));
+        }
+        return LHS_new_cut;
+    }
+
+    private void addArc(IloLinearNumExpr expr, int from, int to) throws IloException {
+        if (z_matrix[from][to] != null) {
+            expr.addTerm(1, z_matrix[from][to]);
+        }
+    }
+
+    private void printRoutes(int[][] routes) {
+        for (int r = 0; r < routes.length; r++) {
+            int[] route = routes[r];
+            System.out.print("Route " + (r + 1) + ": 0");
+            List<Double> totalChargedAtStations = new ArrayList<>();
+            double totalDistance = 0;
+            double totalCost = 0;
+            double totalTravellingTime = 0;
+            double totalCharge = 0;
+            for (int p = 1; p < route.length; p++) {
+                int from = route[p - 1];
+                int to = route[p];
+                totalDistance += d_matrix.get(from, to);
+                totalCost += c_matrix.get(from, to);
+                totalTravellingTime += t_matrix.get(from, to);
+                totalCharge += q_matrix.get(from, to);
+                if (to > nV) {
+                    totalChargedAtStations.add(totalCharge);
+                }
+                System.out.print(", " + to);
+            }
+            System.out.println();
+            System.out.println("Total distance = " + totalDistance);
+            System.out.println("Total cost = " + totalCost);
+            System.out.println("Total travelling time = " + totalTravellingTime);
+            System.out.println("Total charge = " + totalCharge);
+            if (totalChargedAtStations.size() > 1) {
+                System.out.print("Total used charge between stations (including depot at end): ");
+                Double previouslyChargedAtStations = totalChargedAtStations.get(0);
+                for (int j = 1; j < totalChargedAtStations.size(); j++) {
+                    System.out.print(previouslyChargedAtStations + " ");
+                    previouslyChargedAtStations = totalChargedAtStations.get(j) - totalChargedAtStations.get(j-1);
+                }
+                System.out.println();
+            }
+            System.out.println();
+        }
+    }
+
+    // Keep a feasible solution and pass it to the listener if it improves on the best one so far
+    private synchronized void report(int[][] routes, double cost, double relativeGap) {
+        if (cost < incumbentCost) {
+            incumbent = routes;
+            incumbentCost = cost;
+            gap = relativeGap;
+            if (listener != null) {
+                listener.improved(routes, cost, relativeGap, (System.nanoTime() - startTime) / 1e9);
+            }
+        }
+    }
+
+    // Relative gap as computed by CPLEX
+    private static double relativeGap(double objective, double bound) {
+        return Math.abs(objective - bound) / (1e-10 + Math.abs(objective));
+    }
+
+    /**
+     * Lazy constraint callback that cuts off every route of a candidate integer solution without a feasible
+     * charging plan, in both driving directions.
+     */
+    private class RouteCutCallback extends IloCplex.LazyConstraintCallback {
+        private final AtomicInteger cuts = new AtomicInteger();
+        private final AtomicLong lastCheck = new AtomicLong(); // end of the previous check, or start of the solve
+        // Size of the model; lazy cuts are kept in a separate pool, so it does not change during the solve
+        private final int rows;
+        private final int columns;
+        private final int nonZeros;
+
+        RouteCutCallback(int numRows, int numColumns, int numNonZeros) {
+            rows = numRows;
+            columns = numColumns;
+            nonZeros = numNonZeros;
+        }
+
+        @Override
+        protected void main() throws IloException {
+            CutLoopSummary.Iteration iteration = summary.startIteration();
+            iteration.setSolve((System.nanoTime() - lastCheck.get()) / 1e9, getBestObjValue(), getObjValue(), rows, columns, nonZeros);
+            double[][] z = toArcMatrix(getValues(builder.getArcVariables()));
+            int added = 0;
+            for (ArrayList<Integer> route : getInfeasibleRoutes(z, iteration)) {
+                add(cplex.le(getRouteCut(route, false), route.size() - 2));
+                add(cplex.le(getRouteCut(route, true), route.size() - 2));
+                added += 2;
+            }
+            cuts.addAndGet(added);
+            iteration.setCutsAdded(added);
+            summary.finish(iteration);
+            lastCheck.set(System.nanoTime());
+        }
+    }
+
+    /**
+     * Incumbent callback that keeps every new incumbent of CPLEX whose routes all have a feasible charging plan.
+     */
+    private class IncumbentReporter extends IloCplex.IncumbentCallback {
+        @Override
+        protected void main() throws IloException {
+            double[][] z = toArcMatrix(getValues(builder.getArcVariables()));
+            if (getInfeasibleRoutes(z, null).isEmpty()) {
+                double value = getObjValue();
+                report(toArray(extractRoutes(z)), value, relativeGap(value, getBestObjValue()));
+            }
+        }
     }
 }
@@ -1,95 +1,166 @@
-import ilog.concert.IloException;
-import ilog.concert.IloNumExpr;
-import ilog.concert.IloNumVar;
-import ilog.cplex.IloCplex;
-
 import java.util.ArrayList;
 
+/**
+ * Charging-time problem of a single route: minimise the sum of xi^2 over the p visited stations such that the
+ * charge never exceeds Q nor drops below 0. Both bounds are monotone prefix sums of the charge used between
+ * stations, so the optimum is the taut string through the tube of cumulative charge and can be computed exactly
+ * in O(p^2) without a solver environment.
+ */
 public class ConvexQuadraticProgram {
-    private IloCplex cplex;
-    private IloNumVar[] xi;
-    private ArrayList<Double> zeta_vector;
-    private ArrayList<Double> tau_vector;
+    private double[] zeta_vector;
+    private double[] tau_vector;
+    private double[] xi;
+    private double[] lower;
+    private double[] upper;
 
     private int p;
     private double Q;
     private double T;
+    private double objective;
+    private boolean verbose;
 
-    public ConvexQuadraticProgram(ArrayList<Double> chargeUsed, double maxCharge, ArrayList<Double> timeElapsed, double maxTime) throws IloException {
-        // Initialize the cplex solver
-        cplex = new IloCplex();
+    public ConvexQuadraticProgram(ArrayList<Double> chargeUsed, double maxCharge, ArrayList<Double> timeElapsed, double maxTime) {
+        this(toArray(chargeUsed), maxCharge, toArray(timeElapsed), maxTime);
+    }
 
+    public ConvexQuadraticProgram(double[] chargeUsed, double maxCharge, double[] timeElapsed, double maxTime) {
         zeta_vector = chargeUsed;
         tau_vector = timeElapsed;
-        p = zeta_vector.size() - 1;
+        p = zeta_vector.length - 1;
         Q = maxCharge;
         T = maxTime;
-        zeta_vector.add(0.0);
-        tau_vector.add(0.0);
 
-        xi = new IloNumVar[p + 2]; // 0 and p+1 are the depot
-        for (int i = 1; i <= p; i++) {
-            xi[i] = cplex.numVar(0, Double.POSITIVE_INFINITY);
-        }
+        xi = new double[p + 2]; // 0 and p+1 are the depot
+        lower = new double[p + 1];
+        upper = new double[p + 1];
     }
 
-    public boolean routeIsFeasible() throws IloException {
-        // Create the objective function
-        IloNumExpr obj = cplex.constant(0);
-        for (int i = 1; i <= p; i++) {
-            obj = cplex.sum(obj, cplex.prod(xi[i], xi[i]));
-        }
-        cplex.addMinimize(obj);
+    /**
+     * @param verbose True to print the time spent at every station of a feasible route, false (the default) to
+     *                check silently
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
 
-        // Constraint 1
+    public boolean routeIsFeasible() {
+        // Constraint 1 (upper) and constraint 2 (lower) on the charged amount up to station j
+        double used = zeta_vector[0];
         for (int j = 1; j <= p; j++) {
-            IloNumExpr LHS1 = cplex.constant(0);
-            for (int i = 1; i <= j; i++) {
-                LHS1 = cplex.sum(LHS1, xi[i]);
-            }
-            double RHS1 = 0;
-            for (int i = 0; i <= j - 1; i++) {
-                RHS1 += zeta_vector.get(i);
+            upper[j] = used;
+            used += zeta_vector[j];
+            lower[j] = used - Q;
+            if (lower[j] > upper[j]) {
+                return false;
             }
-            cplex.addLe(LHS1, RHS1);
         }
 
-        // Constraint 2
-        for (int j = 1; j <= p; j++) {
-            IloNumExpr LHS2 = cplex.constant(0);
-            for (int i = 1; i <= j; i++) {
-                LHS2 = cplex.sum(LHS2, xi[i]);
-            }
-            double RHS2 = -Q;
-            for (int i = 0; i <= j; i++) {
-                RHS2 += zeta_vector.get(i);
+        solveTautString();
+
+        double LHS = objective / 100;
+        for (int i = 0; i <= p; i++) {
+            LHS += tau_vector[i];
+        }
+        if (verbose) {
+            System.out.println("new route");
+        }
+        if (LHS > T) {
+            return false;
+        } else {
+            if (verbose && p > 0) {
+                for (int i = 1; i <= p; i++) {
+                    double time_spent_at_station_i = xi[i] * xi[i] / 100;
+                    System.out.println("time spent at station " + i + " in above route: " + time_spent_at_station_i);
+                }
             }
-            cplex.addGe(LHS2, RHS2);
+            return true;
         }
+    }
 
-        cplex.setOut(null);
-        cplex.solve();
+    /**
+     * @return the optimal amount charged at station 1..p of the route (index 0 and p+1 are the depot)
+     */
+    public double[] getChargingAmounts() {
+        return xi;
+    }
+
+    public double getObjValue() {
+        return objective;
+    }
 
-        // Query the solution
-        if (cplex.getStatus() == IloCplex.Status.Optimal) {
-            double LHS = cplex.getObjValue() / 100;
-            for (int i = 0; i <= p; i++) {
-                LHS += tau_vector.get(i);
+    // Both bounds are non-decreasing, so the optimum never discharges and stays flat once it reaches the last
+    // lower bound. Pull the string from the depot to that point, bending only at the walls of the tube.
+    private void solveTautString() {
+        for (int i = 0; i < xi.length; i++) {
+            xi[i] = 0;
+        }
+        objective = 0;
+        if (p == 0 || lower[p] <= 0) {
+            return;
+        }
+
+        int end = p;
+        while (end > 1 && lower[end - 1] >= lower[p]) {
+            end--;
+        }
+        double endValue = lower[p];
+
+        int from = 0;
+        double fromValue = 0;
+        while (from < end) {
+            double minSlope = Double.NEGATIVE_INFINITY;
+            double maxSlope = Double.POSITIVE_INFINITY;
+            int minIndex = from;
+            int maxIndex = from;
+            int to = from + 1;
+            for (; to <= end; to++) {
+                double lowerSlope = ((to == end ? endValue : lower[to]) - fromValue) / (to - from);
+                double upperSlope = ((to == end ? endValue : upper[to]) - fromValue) / (to - from);
+                if (lowerSlope > maxSlope) {
+                    break;
+                }
+                if (upperSlope < minSlope) {
+                    break;
+                }
+                if (lowerSlope >= minSlope) {
+                    minSlope = lowerSlope;
+                    minIndex = to;
+                }
+                if (upperSlope <= maxSlope) {
+                    maxSlope = upperSlope;
+                    maxIndex = to;
+                }
             }
-            System.out.println("new route");
-            if (LHS > T) {
-                return false;
+
+            if (to > end) {
+                fill(from, end, (endValue - fromValue) / (end - from));
+                from = end;
+            } else if (((to == end ? endValue : lower[to]) - fromValue) / (to - from) > maxSlope) {
+                // The string wraps around the upper wall
+                fill(from, maxIndex, maxSlope);
+                fromValue = upper[maxIndex];
+                from = maxIndex;
             } else {
-                if (zeta_vector.size() > 2) {
-                    for (int i = 1; i <= p; i++) {
-                        double time_spent_at_station_i = cplex.getValue(xi[i]);
-                        time_spent_at_station_i = time_spent_at_station_i*time_spent_at_station_i/100;
-                        System.out.println("time spent at station " + i + " in above route: " + time_spent_at_station_i);
-                    }
-                }
-                return true;
+                // The string wraps around the lower wall
+                fill(from, minIndex, minSlope);
+                fromValue = lower[minIndex];
+                from = minIndex;
             }
         }
-        return false;
+    }
+
+    private void fill(int from, int to, double slope) {
+        for (int i = from + 1; i <= to; i++) {
+            xi[i] = slope;
+            objective += slope * slope;
+        }
+    }
+
+    private static double[] toArray(ArrayList<Double> list) {
+        double[] array = new double[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
     }
 }
@@ -0,0 +1,105 @@
+import java.util.Random;
+
+/**
+ * Checks ConvexQuadraticProgram against a plain iterative solve of the same QP on random routes, as the repository
+ * has no test framework. The reference writes the QP in the cumulative charge y_j = xi_1 + ... + xi_j, where both
+ * constraint families are bounds on y_j, and minimises the sum of (y_j - y_{j-1})^2 by projected Gauss-Seidel
+ * sweeps until they no longer change it; since the bounds are non-decreasing its optimum never discharges, which is
+ * checked. Both must give the same objective and the same feasibility verdict, except for routes whose charging
+ * time lies within TOLERANCE of T.
+ * Usage: ConvexQuadraticProgramCheck [number of routes] [seed]; exits with status 1 on a mismatch.
+ */
+public class ConvexQuadraticProgramCheck {
+    private static final double TOLERANCE = 1e-6;
+    private static final int MAX_STATIONS = 8;
+    private static final int MAX_SWEEPS = 1000000;
+
+    public static void main(String[] args) {
+        int routes = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Random random = new Random(args.length > 1 ? Long.parseLong(args[1]) : 1);
+        int mismatches = 0;
+        int feasible = 0;
+        double maxDeviation = 0;
+        for (int r = 0; r < routes; r++) {
+            // Charge used and travel time before every station and before the depot at the end
+            int p = random.nextInt(MAX_STATIONS + 1);
+            double Q = 10 + 90 * random.nextDouble();
+            double[] zeta = new double[p + 1];
+            double[] tau = new double[p + 1];
+            double travelTime = 0;
+            for (int i = 0; i <= p; i++) {
+                zeta[i] = Q * 1.1 * random.nextDouble();
+                tau[i] = 5 + 30 * random.nextDouble();
+                travelTime += tau[i];
+            }
+            double T = travelTime + 60 * random.nextDouble();
+
+            ConvexQuadraticProgram program = new ConvexQuadraticProgram(zeta, Q, tau, T);
+            boolean verdict = program.routeIsFeasible();
+            double reference = solveReference(zeta, Q);
+            boolean referenceVerdict = !Double.isNaN(reference) && reference / 100 + travelTime <= T;
+
+            boolean borderline = !Double.isNaN(reference) && Math.abs(reference / 100 + travelTime - T) < TOLERANCE;
+            double deviation = 0;
+            if (!Double.isNaN(reference) && verdict) {
+                deviation = Math.abs(program.getObjValue() - reference) / Math.max(1, reference);
+                maxDeviation = Math.max(maxDeviation, deviation);
+            }
+            if ((verdict != referenceVerdict && !borderline) || deviation > TOLERANCE) {
+                mismatches++;
+                System.out.println("Mismatch on route " + r + ": p = " + p + ", feasible = " + verdict + " vs "
+                        + referenceVerdict + ", objective = " + program.getObjValue() + " vs " + reference);
+            }
+            feasible += verdict ? 1 : 0;
+        }
+        System.out.println(routes + " routes, " + feasible + " feasible, " + mismatches + " mismatches, "
+                + "max relative deviation of the objective = " + maxDeviation);
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Minimum of the sum of xi^2, NaN if no charging plan keeps the charge between 0 and Q
+    private static double solveReference(double[] zeta, double Q) {
+        int p = zeta.length - 1;
+        double[] lower = new double[p + 1];
+        double[] upper = new double[p + 1];
+        double used = zeta[0];
+        for (int j = 1; j <= p; j++) {
+            upper[j] = used;
+            used += zeta[j];
+            lower[j] = Math.max(0, used - Q);
+            if (lower[j] > upper[j]) {
+                return Double.NaN;
+            }
+        }
+
+        // y[0] = 0 is the depot; every y[j] in turn moves to the minimum over its own bounds
+        double[] y = new double[p + 1];
+        for (int j = 1; j <= p; j++) {
+            y[j] = lower[j];
+        }
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            double change = 0;
+            for (int j = 1; j <= p; j++) {
+                double target = j < p ? (y[j - 1] + y[j + 1]) / 2 : y[j - 1];
+                double value = Math.min(upper[j], Math.max(lower[j], target));
+                change = Math.max(change, Math.abs(value - y[j]));
+                y[j] = value;
+            }
+            if (change < 1e-13) {
+                break;
+            }
+        }
+
+        // Without the bounds xi >= 0 this is only the QP of the route if the optimum never discharges
+        double objective = 0;
+        for (int j = 1; j <= p; j++) {
+            if (y[j] < y[j - 1] - TOLERANCE) {
+                throw new IllegalStateException("Reference discharges at station " + j);
+            }
+            objective += (y[j] - y[j - 1]) * (y[j] - y[j - 1]);
+        }
+        return objective;
+    }
+}
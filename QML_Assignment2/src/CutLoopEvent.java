@@ -0,0 +1,51 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of one iteration of the ChargingVRP cut loop, committed by CutLoopSummary.
+ */
+@Name("qml.CutLoopIteration")
+@Label("Cut Loop Iteration")
+@Category({"QML", "ChargingVRP"})
+@Description("MIP solve and charging QP checks of one iteration of the route cut loop")
+public class CutLoopEvent extends Event {
+    @Label("Iteration")
+    int iteration;
+
+    @Label("MIP Time (s)")
+    double mipTime;
+
+    @Label("Best Bound")
+    double bestBound;
+
+    @Label("Objective")
+    double objective;
+
+    @Label("Relative Gap")
+    double gap;
+
+    @Label("Routes Checked")
+    int routesChecked;
+
+    @Label("QP Checks")
+    @Description("Routes not answered by the route cache")
+    int qpChecks;
+
+    @Label("QP Time (s)")
+    double qpTime;
+
+    @Label("Cuts Added")
+    int cutsAdded;
+
+    @Label("Rows")
+    int rows;
+
+    @Label("Columns")
+    int columns;
+
+    @Label("Non-zeros")
+    long nonZeros;
+}
@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Metrics of the ChargingVRP cut loop, one Iteration per MIP solve in the iterative mode or per checked integer
+ * solution in the lazy constraint mode. Every finished iteration is also committed as a CutLoopEvent to JDK Flight
+ * Recorder, so the split between MIP re-solves and charging QP checks can be seen in a recording as well.
+ */
+public class CutLoopSummary {
+    private final List<Iteration> iterations = new ArrayList<>();
+
+    public static class Iteration {
+        private int number;
+        private double mipTime;
+        private double bestBound = Double.NaN;
+        private double objective = Double.NaN;
+        private int rows;
+        private int columns;
+        private int nonZeros;
+        private int routesChecked;
+        private int qpChecks; // routes not answered by the route cache
+        private double qpTime;
+        private int cutsAdded;
+
+        private Iteration(int iterationNumber) {
+            number = iterationNumber;
+        }
+
+        void setSolve(double seconds, double bound, double objectiveValue, int numRows, int numColumns, int numNonZeros) {
+            mipTime = seconds;
+            bestBound = bound;
+            objective = objectiveValue;
+            rows = numRows;
+            columns = numColumns;
+            nonZeros = numNonZeros;
+        }
+
+        void addRouteCheck(boolean cached, double seconds) {
+            routesChecked++;
+            if (!cached) {
+                qpChecks++;
+                qpTime += seconds;
+            }
+        }
+
+        void setCutsAdded(int cuts) {
+            cutsAdded = cuts;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * @return the time of the MIP solve, in the lazy mode the time in CPLEX since the previous check
+         */
+        public double getMipTime() {
+            return mipTime;
+        }
+
+        public double getBestBound() {
+            return bestBound;
+        }
+
+        /**
+         * @return the objective of the solution whose routes were checked, NaN if there was none
+         */
+        public double getObjective() {
+            return objective;
+        }
+
+        /**
+         * @return the relative gap |bound - objective| / (1e-10 + |objective|), as CPLEX computes it
+         */
+        public double getGap() {
+            return Math.abs(bestBound - objective) / (1e-10 + Math.abs(objective));
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public int getColumns() {
+            return columns;
+        }
+
+        public int getNonZeros() {
+            return nonZeros;
+        }
+
+        public int getRoutesChecked() {
+            return routesChecked;
+        }
+
+        public int getQpChecks() {
+            return qpChecks;
+        }
+
+        public double getQpTime() {
+            return qpTime;
+        }
+
+        /**
+         * @return the mean time of a charging QP, 0 if every route was cached
+         */
+        public double getQpTimePerRoute() {
+            return qpChecks == 0 ? 0 : qpTime / qpChecks;
+        }
+
+        public int getCutsAdded() {
+            return cutsAdded;
+        }
+
+        @Override
+        public String toString() {
+            return "Iteration " + number + ": MIP time = " + mipTime + " s, bound = " + bestBound + ", objective = "
+                    + objective + ", gap = " + getGap() + ", routes = " + routesChecked + ", QPs = " + qpChecks
+                    + ", QP time = " + qpTime + " s, cuts = " + cutsAdded + ", model = " + rows + " x " + columns
+                    + " (" + nonZeros + " non-zeros)";
+        }
+    }
+
+    synchronized Iteration startIteration() {
+        return new Iteration(iterations.size() + 1);
+    }
+
+    // Store a complete iteration and publish it to Flight Recorder
+    synchronized void finish(Iteration iteration) {
+        iterations.add(iteration);
+        CutLoopEvent event = new CutLoopEvent();
+        if (event.shouldCommit()) {
+            event.iteration = iteration.number;
+            event.mipTime = iteration.mipTime;
+            event.bestBound = iteration.bestBound;
+            event.objective = iteration.objective;
+            event.gap = iteration.getGap();
+            event.routesChecked = iteration.routesChecked;
+            event.qpChecks = iteration.qpChecks;
+            event.qpTime = iteration.qpTime;
+            event.cutsAdded = iteration.cutsAdded;
+            event.rows = iteration.rows;
+            event.columns = iteration.columns;
+            event.nonZeros = iteration.nonZeros;
+            event.commit();
+        }
+    }
+
+    public synchronized List<Iteration> getIterations() {
+        return Collections.unmodifiableList(new ArrayList<>(iterations));
+    }
+
+    public synchronized double getMipTime() {
+        double total = 0;
+        for (Iteration iteration : iterations) {
+            total += iteration.mipTime;
+        }
+        return total;
+    }
+
+    public synchronized double getQpTime() {
+        double total = 0;
+        for (Iteration iteration : iterations) {
+            total += iteration.qpTime;
+        }
+        return total;
+    }
+
+    public synchronized int getRoutesChecked() {
+        int total = 0;
+        for (Iteration iteration : iterations) {
+            total += iteration.routesChecked;
+        }
+        return total;
+    }
+
+    public synchronized int getCutsAdded() {
+        int total = 0;
+        for (Iteration iteration : iterations) {
+            total += iteration.cutsAdded;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return iterations.size() + " iterations, MIP time = " + getMipTime() + " s, QP time = " + getQpTime()
+                + " s, routes checked = " + getRoutesChecked() + ", cuts added = " + getCutsAdded();
+    }
+}
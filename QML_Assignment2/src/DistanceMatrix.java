@@ -0,0 +1,389 @@
+import java.nio.DoubleBuffer;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Distances between all pairs of locations. A dense double[n][n] takes 8n^2 bytes (over 3 GB for 20000 locations),
+ * so the distances can also be kept as one triangle of a symmetric matrix, in float precision, or not be stored at
+ * all and be computed from the coordinates on demand, with a small cache of recently used blocks of a row. The same
+ * backings hold values derived from the distances, such as the charge and travel time of every arc (see map).
+ */
+public abstract class DistanceMatrix {
+    protected int nLocations;
+    protected double[][] coordinates; // coordinates[dimension][location], null if the distances are not Euclidean
+
+    // Costs, charges and times of the arcs, built once by ArcAttributes.of and dropped together with the distances
+    final AtomicReference<FutureTask<ArcAttributes>> arcAttributes = new AtomicReference<>();
+
+    protected DistanceMatrix(int numLocations, double[][] coordinates) {
+        nLocations = numLocations;
+        this.coordinates = coordinates;
+    }
+
+    /**
+     * Flat copy of a full matrix, keeping only one triangle if the matrix is symmetric.
+     */
+    public static DistanceMatrix of(double[][] distances) {
+        return of(distances, false);
+    }
+
+    /**
+     * @param floatPrecision True to store the distances as floats, halving the memory
+     */
+    public static DistanceMatrix of(double[][] distances, boolean floatPrecision) {
+        int n = distances.length;
+        boolean symmetric = true;
+        for (int i = 0; i < n && symmetric; i++) {
+            for (int j = 0; j < i; j++) {
+                if (distances[i][j] != distances[j][i]) {
+                    symmetric = false;
+                    break;
+                }
+            }
+        }
+        Writable matrix;
+        if (symmetric) {
+            matrix = floatPrecision ? new TriangularFloat(n, null) : new Triangular(n, null);
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j <= i; j++) {
+                    matrix.set(i, j, distances[i][j]);
+                }
+            }
+        } else {
+            matrix = floatPrecision ? new FlatFloat(n) : new Flat(n);
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    matrix.set(i, j, distances[i][j]);
+                }
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Euclidean distances between the given points, stored as one triangle.
+     *
+     * @param coordinates Coordinates of every location as coordinates[dimension][location]
+     */
+    public static DistanceMatrix euclidean(double[][] coordinates) {
+        return euclidean(coordinates, false);
+    }
+
+    /**
+     * @param floatPrecision True to store the distances as floats, halving the memory
+     */
+    public static DistanceMatrix euclidean(double[][] coordinates, boolean floatPrecision) {
+        int n = coordinates[0].length;
+        Writable matrix = floatPrecision ? new TriangularFloat(n, coordinates) : new Triangular(n, coordinates);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                matrix.set(i, j, euclideanDistance(coordinates, i, j));
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Euclidean distances computed from the coordinates when they are asked for. Only the most recently used blocks
+     * of BLOCK consecutive distances in a row are kept, so memory does not grow with the number of locations squared.
+     *
+     * @param cacheBlocks Number of cached blocks, rounded up to a power of two
+     */
+    public static DistanceMatrix lazy(double[][] coordinates, int cacheBlocks) {
+        return new Lazy(coordinates, cacheBlocks);
+    }
+
+    /**
+     * Distances stored as the lower triangle, row by row, of a symmetric matrix in a buffer, for instance a
+     * memory-mapped file. They are read from the buffer directly, without a copy on the heap.
+     *
+     * @param coordinates Coordinates the distances are the Euclidean distances between, or null
+     */
+    public static DistanceMatrix triangle(DoubleBuffer distances, int numLocations, double[][] coordinates) {
+        if (distances.capacity() < triangleSize(numLocations)) {
+            throw new IllegalArgumentException("Buffer too small for " + numLocations + " locations");
+        }
+        return new Buffered(distances, numLocations, coordinates);
+    }
+
+    /**
+     * function(d) of every distance, e.g. the charge or travel time of every arc, stored in the same layout and
+     * precision as these distances, filled with the rows spread over the available cores. If these distances are not
+     * stored on the heap (lazy or buffered), the values are not stored either but computed on demand.
+     */
+    public DistanceMatrix map(DoubleUnaryOperator function) {
+        return derive(function);
+    }
+
+    /**
+     * function(d) of every distance, computed on demand from these distances, for values that are cheaper to
+     * compute than to store.
+     */
+    public DistanceMatrix derive(DoubleUnaryOperator function) {
+        return new Derived(this, function);
+    }
+
+    public int size() {
+        return nLocations;
+    }
+
+    /**
+     * @return the coordinates the distances are the Euclidean distances between, or null if they were given directly
+     */
+    public double[][] getCoordinates() {
+        return coordinates;
+    }
+
+    public abstract double get(int location_i, int location_j);
+
+    /**
+     * @return true if d(i, j) = d(j, i) is guaranteed by the backing
+     */
+    public boolean isSymmetric() {
+        return coordinates != null;
+    }
+
+    protected static double euclideanDistance(double[][] coordinates, int location_i, int location_j) {
+        double sum = 0;
+        for (int dimension = 0; dimension < coordinates.length; dimension++) {
+            double difference = coordinates[dimension][location_i] - coordinates[dimension][location_j];
+            sum += difference * difference;
+        }
+        return Math.sqrt(sum);
+    }
+
+    // Position of (i, j) with j <= i in a lower triangle stored row by row
+    private static int triangleIndex(int location_i, int location_j) {
+        int row = Math.max(location_i, location_j);
+        return (int) ((long) row * (row + 1) >>> 1) + Math.min(location_i, location_j);
+    }
+
+    private static int triangleSize(int n) {
+        long size = (long) n * (n + 1) / 2;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many locations for a stored distance matrix: " + n);
+        }
+        return (int) size;
+    }
+
+    private static int squareSize(int n) {
+        long size = (long) n * n;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many locations for a stored distance matrix: " + n);
+        }
+        return (int) size;
+    }
+
+    // Backings filled once by the factory methods above; the others are read-only
+    abstract static class Writable extends DistanceMatrix {
+        Writable(int n, double[][] coordinates) {
+            super(n, coordinates);
+        }
+
+        abstract void set(int location_i, int location_j, double distance);
+
+        // Empty matrix of the same kind and size, without coordinates
+        abstract Writable blank();
+
+        @Override
+        public DistanceMatrix map(DoubleUnaryOperator function) {
+            Writable values = blank();
+            boolean triangle = isSymmetric();
+            IntStream.range(0, nLocations).parallel().forEach(i -> {
+                int last = triangle ? i : nLocations - 1;
+                for (int j = 0; j <= last; j++) {
+                    values.set(i, j, function.applyAsDouble(get(i, j)));
+                }
+            });
+            return values;
+        }
+    }
+
+    private static class Flat extends Writable {
+        private double[] distances;
+
+        Flat(int n) {
+            super(n, null);
+            distances = new double[squareSize(n)];
+        }
+
+        @Override
+        public double get(int location_i, int location_j) {
+            return distances[location_i * nLocations + location_j];
+        }
+
+        @Override
+        Writable blank() {
+            return new Flat(nLocations);
+        }
+
+        @Override
+        void set(int location_i, int location_j, double distance) {
+            distances[location_i * nLocations + location_j] = distance;
+        }
+    }
+
+    private static class FlatFloat extends Writable {
+        private float[] distances;
+
+        FlatFloat(int n) {
+            super(n, null);
+            distances = new float[squareSize(n)];
+        }
+
+        @Override
+        public double get(int location_i, int location_j) {
+            return distances[location_i * nLocations + location_j];
+        }
+
+        @Override
+        Writable blank() {
+            return new FlatFloat(nLocations);
+        }
+
+        @Override
+        void set(int location_i, int location_j, double distance) {
+            distances[location_i * nLocations + location_j] = (float) distance;
+        }
+    }
+
+    private static class Triangular extends Writable {
+        private double[] distances;
+
+        Triangular(int n, double[][] coordinates) {
+            super(n, coordinates);
+            distances = new double[triangleSize(n)];
+        }
+
+        @Override
+        public double get(int location_i, int location_j) {
+            return distances[triangleIndex(location_i, location_j)];
+        }
+
+        @Override
+        Writable blank() {
+            return new Triangular(nLocations, null);
+        }
+
+        @Override
+        void set(int location_i, int location_j, double distance) {
+            distances[triangleIndex(location_i, location_j)] = distance;
+        }
+
+        @Override
+        public boolean isSymmetric() {
+            return true;
+        }
+    }
+
+    private static class TriangularFloat extends Writable {
+        private float[] distances;
+
+        TriangularFloat(int n, double[][] coordinates) {
+            super(n, coordinates);
+            distances = new float[triangleSize(n)];
+        }
+
+        @Override
+        public double get(int location_i, int location_j) {
+            return distances[triangleIndex(location_i, location_j)];
+        }
+
+        @Override
+        Writable blank() {
+            return new TriangularFloat(nLocations, null);
+        }
+
+        @Override
+        void set(int location_i, int location_j, double distance) {
+            distances[triangleIndex(location_i, location_j)] = (float) distance;
+        }
+
+        @Override
+        public boolean isSymmetric() {
+            return true;
+        }
+    }
+
+    private static class Buffered extends DistanceMatrix {
+        private DoubleBuffer distances;
+
+        Buffered(DoubleBuffer distances, int n, double[][] coordinates) {
+            super(n, coordinates);
+            this.distances = distances;
+        }
+
+        @Override
+        public double get(int location_i, int location_j) {
+            return distances.get(triangleIndex(location_i, location_j));
+        }
+
+        @Override
+        public boolean isSymmetric() {
+            return true;
+        }
+    }
+
+    private static class Derived extends DistanceMatrix {
+        private DistanceMatrix distances;
+        private DoubleUnaryOperator function;
+
+        Derived(DistanceMatrix distances, DoubleUnaryOperator function) {
+            super(distances.size(), null);
+            this.distances = distances;
+            this.function = function;
+        }
+
+        @Override
+        public double get(int location_i, int location_j) {
+            return function.applyAsDouble(distances.get(location_i, location_j));
+        }
+
+        @Override
+        public boolean isSymmetric() {
+            return distances.isSymmetric();
+        }
+    }
+
+    private static class Lazy extends DistanceMatrix {
+        private static final int BLOCK = 64;
+
+        // Direct-mapped cache of immutable blocks; a slot is replaced as a whole, so threads can share it without locks
+        private Block[] cache;
+        private int mask;
+
+        Lazy(double[][] coordinates, int cacheBlocks) {
+            super(coordinates[0].length, coordinates);
+            int slots = Integer.highestOneBit(Math.max(cacheBlocks - 1, 1)) << 1;
+            cache = new Block[slots];
+            mask = slots - 1;
+        }
+
+        @Override
+        public double get(int location_i, int location_j) {
+            long key = (long) location_i * nLocations + location_j / BLOCK * BLOCK;
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+            Block block = cache[slot];
+            if (block == null || block.key != key) {
+                block = new Block(key, location_i, location_j / BLOCK * BLOCK);
+                cache[slot] = block;
+            }
+            return block.distances[location_j % BLOCK];
+        }
+
+        private class Block {
+            private final long key;
+            private final double[] distances;
+
+            Block(long blockKey, int location_i, int firstLocation) {
+                key = blockKey;
+                distances = new double[Math.min(BLOCK, nLocations - firstLocation)];
+                for (int j = 0; j < distances.length; j++) {
+                    distances[j] = euclideanDistance(coordinates, location_i, firstLocation + j);
+                }
+            }
+        }
+    }
+}
@@ -1,68 +1,361 @@
-import java.sql.SQLOutput;
-import java.util.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class Heuristic {
+    // Round-off allowed on the final charge level, which is exactly 0 whenever the last station charges just enough
+    private static final double EPSILON = 1e-9;
+
     private int nLocations;
     private int nV;
     private int nC;
-    private double[][] d_matrix;
-    private double[][] c_matrix;
-    private double[][] q_matrix;
-    private double[][] t_matrix;
+    private int end;
+    private DistanceMatrix d_matrix;
+    private DistanceMatrix c_matrix;
+    private DistanceMatrix q_matrix;
+    private DistanceMatrix t_matrix;
     private double Q;
     private double T;
-    private ArrayList<ArrayList<Integer>> toursList;
-    private Map<Integer, ArrayList<Integer>> adjacentVertexToRoute;
-    private Map<int[], Double> savingsPairList;
-    private List<int[]> pairList;
-    private List<Map.Entry<int[], Double>> pairs;
-    private List<Integer> chargingStations; //currently available to use
-    private final ArrayList<ArrayList<Integer>> result = new ArrayList<>();
+    private RouteEvaluator evaluator;
+
+    // Tours are linked lists of the locations between the depots, identified by their first buyer
+    private int[] next;
+    private int[] previous;
+    private int[] routeOf; // first buyer of the tour a location is in, -1 if it is in no tour
+    private int[] lastOf; // last location of a tour, indexed by its first buyer
+    private int[] tourOrder;
+    private int nTours;
+    private boolean[] stationAvailable; //currently available to use
+    private StationIndex stationIndex; // null when no planar coordinates are known, then every station is tried
+
+    // Segment summaries of every tour (indexed by its first buyer) and of its stations, so a merge of two tours can
+    // be checked without walking them
+    private double[] interiorCharge; // charge used between the first and last location
+    private double[] interiorTime; // travel time between the first and last location
+    private double[] headCharge; // charge used from the first location up to the first station (or the depot)
+    private double[] tailCharge; // charge used from the last station up to the last location
+    private double[] lastStationLevel; // charge level arriving at the last station, leaving the depot full
+    private double[] threshold; // lowest charge level at the first station (or the depot) for which the tour ends non-negative
+    private double[] stationTimeBeforeLast; // charging time of all stations but the last
+    private int[] lastStation; // last station of the tour, 0 if there is none
+    private int[] firstStation; // first station of the tour, 0 if there is none
+    private int[] nextStation; // next station in the same tour, 0 if there is none
+    private double[] stationCharge; // charge used from the first location of its tour up to a station
+    private double[] chargeToNextStop; // charge used from the first location of its tour up to the stop after a station
+    private int[] summaryBuffer;
+
+    // Savings pair list, ordered by decreasing saving; entries of tours whose version changed are outdated. It starts
+    // with room for every pair of tours, up to INITIAL_SAVINGS, and grows as pairs with a positive saving are pushed
+    private static final int INITIAL_SAVINGS = 1 << 20;
+    private SavingsHeap savings;
+    private int[] version;
+
+    // Granular savings: only junctions between a buyer and one of its nearest buyers in cost are considered
+    private int neighbourListSize; // 0 to consider every pair of tours
+    private int[] neighbourStart; // neighbours of buyer v are neighbours[neighbourStart[v]..neighbourStart[v + 1] - 1]
+    private int[] neighbours;
+
+    // Multi-start: every start builds the savings c[i][end] + c[0][j] - lambda c[i][j], randomly perturbed by up to
+    // NOISE of their value, with lambda drawn from MIN_LAMBDA..MAX_LAMBDA; start 0 is the plain savings heuristic
+    private static final double MIN_LAMBDA = 0.6;
+    private static final double MAX_LAMBDA = 1.4;
+    private static final double NOISE = 0.05;
+    private int starts = 1;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private double lambda = 1;
+    private Random random; // null for the plain savings
+    private int bestStart;
+
+    private double alnsTime; // wall-clock budget of the adaptive large neighbourhood search, 0 to skip it
+    private ALNS alns;
+
+    // Anytime mode: improved solutions are passed to the listener, and every phase stops at the deadline
+    private double deadline; // seconds after the start of solveModel, 0 for none
+    private IncumbentListener listener;
+    private long startTime;
+    private double incumbentCost; // cost of the last solution passed to the listener
+
+    private boolean useMetrics;
+    private HeuristicMetrics metrics; // null when metrics are disabled, so every counter costs one branch
+
+    private boolean useLocalSearch = true;
+    private LocalSearch localSearch;
+    private int[][] solution; // routes found by solveModel, from depot to depot
+
+    // Scratch sequences (depot, locations, depot) used to evaluate tours without allocating
+    private int[] tourBuffer;
+    private int[] candidateBuffer;
+    private int[] stationBuffer;
+    private int[] removalBuffer; // positions (in route order) of the stations in the removal being evaluated
+    private int[] bestRemoval;
 
     public Heuristic(double[][] distances, double maxElectricity, double maxTime, int numLocations, int numChargeStations) {
-        nLocations = distances.length; // = 28
+        this(DistanceMatrix.of(distances), null, maxElectricity, maxTime, numLocations, numChargeStations);
+    }
+
+    /**
+     * @param coordinates Coordinates of every location as coordinates[dimension][location], used to look up the
+     *                    charging stations closest to a junction; distances must be the Euclidean distances between them.
+     *                    Only two-dimensional coordinates are used, otherwise every station is tried
+     */
+    public Heuristic(double[][] distances, double[][] coordinates, double maxElectricity, double maxTime, int numLocations, int numChargeStations) {
+        this(DistanceMatrix.of(distances), coordinates, maxElectricity, maxTime, numLocations, numChargeStations);
+    }
+
+    /**
+     * Uses the coordinates of the matrix, if it has them, to look up the charging stations closest to a junction.
+     */
+    public Heuristic(DistanceMatrix distances, double maxElectricity, double maxTime, int numLocations, int numChargeStations) {
+        this(distances, distances.getCoordinates(), maxElectricity, maxTime, numLocations, numChargeStations);
+    }
+
+    public Heuristic(DistanceMatrix distances, double[][] coordinates, double maxElectricity, double maxTime, int numLocations, int numChargeStations) {
+        nLocations = distances.size(); // = 28
+        end = nLocations - 1;
         d_matrix = distances;
         Q = maxElectricity;
         T = maxTime;
         nV = numLocations;
         nC = numChargeStations;
 
-        c_matrix = new double[nLocations][nLocations];
-        q_matrix = new double[nLocations][nLocations];
-        t_matrix = new double[nLocations][nLocations];
-        for (int i = 0; i < nLocations; i++) {
-            for (int j = 0; j < nLocations; j++) {
-                c_matrix[i][j] = 1 + d_matrix[i][j];
-                q_matrix[i][j] = 10 + Math.pow(d_matrix[i][j], 0.75);
-                t_matrix[i][j] = 5 + Math.pow(d_matrix[i][j], 0.9);
-            }
+        ArcAttributes arcs = ArcAttributes.of(d_matrix);
+        c_matrix = arcs.getCosts();
+        q_matrix = arcs.getCharges();
+        t_matrix = arcs.getTimes();
+        evaluator = new RouteEvaluator(d_matrix, c_matrix, q_matrix, t_matrix, Q, T, nV, nC);
+        // The index works in the plane, so other numbers of dimensions try every station
+        if (coordinates != null && coordinates.length == 2) {
+            stationIndex = new StationIndex(coordinates, nV + 1, nC);
         }
+        initialize();
+    }
 
-        toursList = new ArrayList<>();
-        for (int i = 1; i <= nV; i++) {
-            toursList.add(new ArrayList<>(Arrays.asList(0, i, nLocations - 1)));
+    // Copy for one start of the multi-start mode: the instance data is shared, the search state is its own
+    private Heuristic(Heuristic base, double savingsWeight, Random randomization) {
+        nLocations = base.nLocations;
+        end = base.end;
+        d_matrix = base.d_matrix;
+        c_matrix = base.c_matrix;
+        q_matrix = base.q_matrix;
+        t_matrix = base.t_matrix;
+        Q = base.Q;
+        T = base.T;
+        nV = base.nV;
+        nC = base.nC;
+        evaluator = base.evaluator;
+        if (base.stationIndex != null) {
+            stationIndex = new StationIndex(base.stationIndex);
         }
+        neighbourListSize = base.neighbourListSize;
+        neighbourStart = base.neighbourStart;
+        neighbours = base.neighbours;
+        useLocalSearch = base.useLocalSearch;
+        useMetrics = base.useMetrics;
+        deadline = base.deadline;
+        startTime = base.startTime;
+        if (base.metrics != null) {
+            metrics = new HeuristicMetrics();
+        }
+        lambda = savingsWeight;
+        random = randomization;
+        initialize();
+    }
 
-        chargingStations = new ArrayList<>();
+    private void initialize() {
+        next = new int[nLocations];
+        previous = new int[nLocations];
+        routeOf = new int[nLocations];
+        lastOf = new int[nLocations];
+        tourOrder = new int[nV];
+
+        interiorCharge = new double[nLocations];
+        interiorTime = new double[nLocations];
+        headCharge = new double[nLocations];
+        tailCharge = new double[nLocations];
+        lastStationLevel = new double[nLocations];
+        threshold = new double[nLocations];
+        stationTimeBeforeLast = new double[nLocations];
+        lastStation = new int[nLocations];
+        firstStation = new int[nLocations];
+        nextStation = new int[nLocations];
+        stationCharge = new double[nLocations];
+        chargeToNextStop = new double[nLocations];
+        summaryBuffer = new int[nC];
+        stationAvailable = new boolean[nLocations];
+        version = new int[nLocations];
+        tourBuffer = new int[nLocations + 1];
+        candidateBuffer = new int[nLocations + 1];
+        stationBuffer = new int[nC];
+        removalBuffer = new int[nC + 1];
+        bestRemoval = new int[nC];
+    }
+
+    // Start from one tour per buyer, with every station available
+    private void resetTours() {
+        Arrays.fill(routeOf, -1);
+        nTours = 0;
+        for (int i = 1; i <= nV; i++) {
+            next[i] = end;
+            previous[i] = 0;
+            routeOf[i] = i;
+            lastOf[i] = i;
+            tourOrder[nTours++] = i;
+            summarize(i);
+        }
         for (int i = nV + 1; i <= nC + nV; i++) {
-            chargingStations.add(i);
+            stationAvailable[i] = true;
         }
+        Arrays.fill(version, 0);
+    }
 
-        // Call step 2
-        step2();
+    /**
+     * Only consider merging tours whose junction joins a buyer to one of its k nearest buyers in cost, instead of
+     * every pair of tours. Construction then takes O(nk) savings instead of O(n^2).
+     *
+     * @param k Number of neighbours per buyer, 0 (the default) to consider every pair of tours
+     */
+    public void setNeighbourListSize(int k) {
+        neighbourListSize = k;
+    }
+
+    /**
+     * @param enabled True (the default) to improve the constructed routes with local search
+     */
+    public void setLocalSearch(boolean enabled) {
+        useLocalSearch = enabled;
+    }
+
+    /**
+     * @return the routes of the last solution, each from depot 0 to depot n-1
+     */
+    public int[][] getRoutes() {
+        return solution;
+    }
+
+    /**
+     * Run several randomized starts of the construction (and local search) in parallel and keep the best solution.
+     *
+     * @param numberOfStarts Number of starts, 1 (the default) for only the plain savings heuristic
+     * @param numberOfThreads Size of the fork-join pool running the starts
+     */
+    public void setMultiStart(int numberOfStarts, int numberOfThreads) {
+        starts = numberOfStarts;
+        threads = numberOfThreads;
+    }
+
+    /**
+     * Improve the solution of the construction with adaptive large neighbourhood search.
+     *
+     * @param seconds Wall-clock budget of the search, 0 (the default) to skip it
+     */
+    public void setTimeBudget(double seconds) {
+        alnsTime = seconds;
+    }
+
+    /**
+     * Return the best solution found once the deadline has passed: the savings merges and local search of every start
+     * stop where they are, the starts of the multi-start mode that have not begun yet are skipped, and ALNS runs until
+     * the deadline (or for its time budget, if that ends earlier). Every tour is feasible at any point of the merges,
+     * so there is always a solution, at worst one tour per buyer; only the neighbour lists are always built in full.
+     *
+     * @param seconds Deadline after the start of solveModel, 0 (the default) for none
+     */
+    public void setDeadline(double seconds) {
+        deadline = seconds;
+    }
+
+    /**
+     * @param listener Receives every improved solution while solveModel runs, null (the default) for none
+     */
+    public void setIncumbentListener(IncumbentListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Count the work of every phase and time it, and commit Flight Recorder events for it. When disabled (the
+     * default) nothing is counted.
+     *
+     * @param enabled True to collect metrics in solveModel
+     */
+    public void setMetrics(boolean enabled) {
+        useMetrics = enabled;
+    }
+
+    /**
+     * @return a snapshot of the metrics of the last solveModel, null if metrics were disabled
+     */
+    public HeuristicMetrics getMetrics() {
+        return metrics == null ? null : metrics.copy();
+    }
+
+    public double getObjValue() {
+        double totalCost = 0;
+        for (int[] route : solution) {
+            totalCost += evaluator.computeCost(route, route.length);
+        }
+        return totalCost;
+    }
+
+    public void solveModel() {
+        startTime = System.nanoTime();
+        incumbentCost = Double.POSITIVE_INFINITY;
+        alns = null;
+        metrics = useMetrics ? new HeuristicMetrics() : null;
+        long routeChecks = 0;
+        if (metrics != null) {
+            // The starts share the evaluator, so its count covers all of them, local search and ALNS
+            evaluator.countRouteChecks();
+            routeChecks = evaluator.getRouteChecks();
+        }
+        neighbours = null;
+        if (neighbourListSize > 0 && neighbourListSize < nV - 1) {
+            long phaseStart = startPhase();
+            buildNeighbourLists(neighbourListSize);
+            endPhase(HeuristicMetrics.NEIGHBOUR_LISTS, phaseStart);
+        }
+
+        if (starts > 1) {
+            multiStart();
+        } else {
+            construct();
+        }
+        if (listener != null) {
+            report(solution, getObjValue());
+        }
+        if (getALNSBudget() > 0) {
+            long phaseStart = startPhase();
+            alns = new ALNS(evaluator, c_matrix, t_matrix, T, nV, nC, 0);
+            if (neighbours != null) {
+                alns.setNeighbours(neighbourStart, neighbours);
+            }
+            if (listener != null) {
+                alns.setIncumbentListener((routes, cost, gap, seconds) -> report(routes, cost));
+            }
+            solution = alns.solve(solution, getALNSBudget());
+            endPhase(HeuristicMetrics.ALNS, phaseStart);
+        }
+        double solveTime = (System.nanoTime() - startTime) / 1e9;
+        if (metrics != null) {
+            metrics.routeChecks = evaluator.getRouteChecks() - routeChecks;
+        }
 
         double totalCost = 0;
         System.out.println("Solution:");
-        for (ArrayList<Integer> tour : toursList) {
+        for (int[] route : solution) {
+            int length = route.length;
             System.out.print("Route = ");
-            for (Integer location : tour) {
-                System.out.print(location + " ");
+            for (int i = 0; i < length; i++) {
+                System.out.print(route[i] + " ");
             }
             System.out.println();
-            double distance = computeDistance(tour);
-            double cost = computeCost(tour);
-            double time = computeTime(tour);
-            double charge = computeCharge(tour);
+            double distance = evaluator.computeDistance(route, length);
+            double cost = evaluator.computeCost(route, length);
+            double time = evaluator.computeTime(route, length);
+            double charge = evaluator.computeCharge(route, length);
             totalCost += cost;
             System.out.println("Distance = " + distance);
             System.out.println("Cost = " + cost);
@@ -71,367 +364,671 @@ public class Heuristic {
             System.out.println();
         }
         System.out.println("Objective = " + totalCost);
+        System.out.println("Mode = " + (neighbours == null ? "all pairs" : neighbourListSize + " nearest neighbours"));
+        if (starts > 1) {
+            System.out.println("Starts = " + starts + " on " + threads + " threads, best start = " + bestStart);
+        }
+        System.out.println("Solve time = " + solveTime + " s");
+        if (useLocalSearch) {
+            localSearch.printStatistics();
+        }
+        if (alns != null) {
+            alns.printStatistics();
+        }
+        if (metrics != null) {
+            System.out.println(metrics);
+            HeuristicMetricsEvent.commit(metrics);
+        }
     }
 
+    // Time budget of ALNS, shortened to the time left until the deadline
+    private double getALNSBudget() {
+        if (deadline <= 0) {
+            return alnsTime;
+        }
+        return alnsTime > 0 ? Math.min(alnsTime, getRemainingTime()) : getRemainingTime();
+    }
 
+    // Seconds left until the deadline, infinite without one
+    private double getRemainingTime() {
+        if (deadline <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return deadline - (System.nanoTime() - startTime) / 1e9;
+    }
 
-    private void step2() {
-        // Store all vertices that are adjacent to the leaving depot in a tour
-        adjacentVertexToRoute = new LinkedHashMap<>();
-        for (ArrayList<Integer> tour : toursList) {
-            adjacentVertexToRoute.put(tour.get(1), tour);
-        }
-
-        // Create an unsorted SPL
-        List<Integer> adjVertices = new ArrayList<>(adjacentVertexToRoute.keySet());
-        Map<int[], Double> savingsPairListUnsorted = new LinkedHashMap<>();
-        for (int i = 0; i < adjVertices.size(); i++) {
-            for (int j = i + 1; j < adjVertices.size(); j++) {
-                int location_i = adjVertices.get(i);
-                int location_j = adjVertices.get(j);
-                if (location_i != location_j && isInTour(adjacentVertexToRoute.get(location_i), location_j) == -1
-                        && isInTour(adjacentVertexToRoute.get(location_j), location_i) == -1) {
-                    int[] pair = new int[]{adjVertices.get(i), adjVertices.get(j)};
-                    int sizeTourI = adjacentVertexToRoute.get(location_i).size();
-                    int lastLocationInI = adjacentVertexToRoute.get(location_i).get(sizeTourI - 2);
-                    double saving = c_matrix[lastLocationInI][nLocations-1] + c_matrix[0][location_j] - c_matrix[lastLocationInI][location_j];
-                    if (saving > 0) {
-                        savingsPairListUnsorted.put(pair, saving);
-                    }
+    private boolean isExpired() {
+        return getRemainingTime() <= 0;
+    }
 
-                    pair = new int[]{adjVertices.get(j), adjVertices.get(i)};
-                    int sizeTourJ = adjacentVertexToRoute.get(location_j).size();
-                    int lastLocationInJ = adjacentVertexToRoute.get(location_j).get(sizeTourJ - 2);
-                    saving = c_matrix[lastLocationInJ][nLocations-1] + c_matrix[0][location_i] - c_matrix[lastLocationInJ][location_i];
-                    if (saving > 0) {
-                        savingsPairListUnsorted.put(pair, saving);
-                    }
-                }
-            }
+    // Pass a solution to the listener if it improves on the last one passed
+    private synchronized void report(int[][] routes, double cost) {
+        if (cost < incumbentCost) {
+            incumbentCost = cost;
+            listener.improved(routes, cost, Double.NaN, (System.nanoTime() - startTime) / 1e9);
         }
+    }
+
+    // Start of a timed phase, 0 when metrics are disabled
+    private long startPhase() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
 
-        // Sort the SPL
-        pairs = new LinkedList<>(savingsPairListUnsorted.entrySet());
-        Collections.sort(pairs,
-                (map1, map2) -> map2.getValue().compareTo(map1.getValue())
-        );
-        savingsPairList = new LinkedHashMap<>();
-        pairList = new ArrayList<>();
-        for (Map.Entry<int[], Double> map : pairs) {
-            pairList.add(map.getKey());
-            savingsPairList.put(map.getKey(), map.getValue());
+    private void endPhase(int phase, long phaseStart) {
+        if (metrics == null) {
+            return;
         }
+        long time = System.nanoTime() - phaseStart;
+        metrics.phaseTime[phase] += time;
+        HeuristicPhaseEvent event = new HeuristicPhaseEvent();
+        if (event.shouldCommit()) {
+            event.phase = HeuristicMetrics.PHASES[phase];
+            event.time = time;
+            event.commit();
+        }
+    }
 
-        // Call step 3
-        step3();
+    // Run every start on its own copy of the search state and keep the best solution; ties go to the lowest start
+    private void multiStart() {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            Heuristic best = pool.submit(() -> IntStream.range(0, starts).parallel()
+                    .mapToObj(this::runStart)
+                    .filter(Objects::nonNull)
+                    .min(Comparator.comparingDouble(Heuristic::getObjValue).thenComparingInt(h -> h.bestStart))
+                    .get()).get();
+            solution = best.solution;
+            localSearch = best.localSearch;
+            bestStart = best.bestStart;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdown();
+        }
     }
 
-    private void step3() {
-        int toursBeforeMerge = toursList.size();
-        while (!savingsPairList.isEmpty()) {
-            int n = toursList.size();
-            int[] pair = pairList.get(0);
+    // Run one start, or return null if it is skipped because the deadline has passed
+    private Heuristic runStart(int start) {
+        if (start > 0 && isExpired()) {
+            return null;
+        }
+        Heuristic copy;
+        if (start == 0) {
+            copy = new Heuristic(this, 1, null);
+        } else {
+            Random randomization = new Random(start);
+            copy = new Heuristic(this, MIN_LAMBDA + (MAX_LAMBDA - MIN_LAMBDA) * randomization.nextDouble(), randomization);
+        }
+        copy.construct();
+        copy.bestStart = start;
+        if (listener != null) {
+            report(copy.solution, copy.getObjValue());
+        }
+        if (metrics != null) {
+            synchronized (metrics) {
+                metrics.add(copy.metrics);
+            }
+        }
+        return copy;
+    }
 
-            savingsPairList.remove(pair);
-            pairList.remove(pair);
+    // Build the routes with the savings heuristic from one tour per buyer, so solveModel can be called again, and
+    // improve them with local search
+    private void construct() {
+        resetTours();
+        long pairs = neighbours == null ? (long) nV * (nV - 1) : neighbourStart[nV + 1];
+        if (pairs > SavingsHeap.MAX_CAPACITY) {
+            throw new IllegalStateException(nV + " buyers have " + pairs + " pairs of tours, more than the savings "
+                    + "list can hold; use setNeighbourListSize to only consider the nearest neighbours");
+        }
+        savings = new SavingsHeap((int) Math.min(pairs, INITIAL_SAVINGS));
 
-            ArrayList<Integer> tour_i = new ArrayList<>();
-            ArrayList<Integer> tour_j = new ArrayList<>();
+        // Call step 2
+        step2();
+        solution = new int[nTours][];
+        for (int t = 0; t < nTours; t++) {
+            solution[t] = Arrays.copyOf(tourBuffer, fillTour(tourOrder[t], tourBuffer));
+        }
+        if (listener != null) {
+            report(solution, getObjValue());
+        }
+
+        // Improve the constructed routes
+        if (useLocalSearch) {
+            long phaseStart = startPhase();
+            localSearch = new LocalSearch(evaluator, c_matrix, nV, nC);
+            if (neighbours != null) {
+                localSearch.setNeighbours(neighbourStart, neighbours);
+            }
+            solution = localSearch.improve(solution, getRemainingTime());
+            endPhase(HeuristicMetrics.LOCAL_SEARCH, phaseStart);
+        }
+    }
 
-            for (ArrayList<Integer> tour : toursList) {
-                if (tour.get(1) == pair[0]) {
-                    tour_i = tour;
+    // Symmetric lists of the k nearest buyers of every buyer: b is a neighbour of a if either is among the k nearest
+    // of the other
+    private void buildNeighbourLists(int k) {
+        int[] nearest = new int[(nV + 1) * k];
+        int[] degree = new int[nV + 2];
+        for (int a = 1; a <= nV; a++) {
+            // Bounded max-heap on cost of the k nearest buyers seen so far
+            int size = 0;
+            int offset = a * k;
+            for (int b = 1; b <= nV; b++) {
+                if (b == a) {
+                    continue;
                 }
-                if (tour.get(1) == pair[1]) {
-                    tour_j = tour;
+                double cost = c_matrix.get(a, b);
+                if (size < k) {
+                    int position = size++;
+                    while (position > 0 && c_matrix.get(a, nearest[offset + (position - 1) / 2]) < cost) {
+                        nearest[offset + position] = nearest[offset + (position - 1) / 2];
+                        position = (position - 1) / 2;
+                    }
+                    nearest[offset + position] = b;
+                } else if (cost < c_matrix.get(a, nearest[offset])) {
+                    int position = 0;
+                    while (true) {
+                        int child = 2 * position + 1;
+                        if (child >= k) {
+                            break;
+                        }
+                        if (child + 1 < k && c_matrix.get(a, nearest[offset + child + 1]) > c_matrix.get(a, nearest[offset + child])) {
+                            child++;
+                        }
+                        if (c_matrix.get(a, nearest[offset + child]) <= cost) {
+                            break;
+                        }
+                        nearest[offset + position] = nearest[offset + child];
+                        position = child;
+                    }
+                    nearest[offset + position] = b;
                 }
             }
+            for (int r = 0; r < k; r++) {
+                degree[a]++;
+                degree[nearest[offset + r]]++;
+            }
+        }
 
-            ArrayList<Integer> mergedTour = getMergedTour(tour_i, tour_j);
-
-            // If feasible we can replace the tour immediately
-            if (isFeasible(mergedTour)) {
-                toursList.remove(tour_i); //remove also the tours that are merged
-                toursList.remove(tour_j); //remove also the tours that are merged
-                toursList.add(mergedTour);
+        // Fill both directions, then drop the duplicates of buyers that are among each other's nearest
+        int[] start = new int[nV + 2];
+        for (int v = 1; v <= nV; v++) {
+            start[v + 1] = start[v] + degree[v];
+        }
+        int[] fill = Arrays.copyOf(start, nV + 2);
+        int[] list = new int[start[nV + 1]];
+        for (int a = 1; a <= nV; a++) {
+            for (int r = 0; r < k; r++) {
+                int b = nearest[a * k + r];
+                list[fill[a]++] = b;
+                list[fill[b]++] = a;
             }
-            // Else we check if it is time feasible, and try to insert a station
-            else if (isTimeFeasible(mergedTour)) {
-                mergedTour = insertedStationTour(pair, tour_i, tour_j, mergedTour);
-                if (mergedTour == null) {
-                    break;
-                }
-                ArrayList<Integer> stationsInRoute = stationsInRoute(mergedTour);
-                if (stationsInRoute.size() > 1) {
-                    ArrayList<Integer> removedCombinationIJ = getRedundantStations(mergedTour, stationsInRoute);
-                    mergedTour.removeAll(removedCombinationIJ);
-                    chargingStations.addAll(removedCombinationIJ); // Added
+        }
+        int[] seen = new int[nV + 1];
+        neighbourStart = new int[nV + 2];
+        neighbours = new int[list.length];
+        int count = 0;
+        for (int v = 1; v <= nV; v++) {
+            neighbourStart[v] = count;
+            for (int e = start[v]; e < start[v + 1]; e++) {
+                if (seen[list[e]] != v) {
+                    seen[list[e]] = v;
+                    neighbours[count++] = list[e];
                 }
-                toursList.remove(tour_i); //remove also the tours that are merged
-                toursList.remove(tour_j); //remove also the tours that are merged
-                toursList.add(mergedTour);
             }
-            // We remove all pairs that include vertices used to replace the tours
-            if (n != toursList.size()) {
-                List<int[]> listToBeRemoved = new ArrayList<>();
-                for (int[] p : pairList) {
-                    if (p[0] == pair[0] || p[1] == pair[0] || p[0] == pair[1] || p[1] == pair[1]) {
-                        listToBeRemoved.add(p);
+        }
+        neighbourStart[nV + 1] = count;
+    }
 
-                    }
+
+
+    private void step2() {
+        // Create the SPL over all pairs of tours, joining the last location of one to the first buyer of the other
+        long phaseStart = startPhase();
+        if (metrics != null) {
+            metrics.step2Passes++;
+        }
+        savings.clear();
+        if (neighbours != null) {
+            // Every tour is a single buyer and the lists are symmetric, so this adds both directions of each pair
+            for (int a = 1; a <= nV && !isExpired(); a++) {
+                for (int e = neighbourStart[a]; e < neighbourStart[a + 1]; e++) {
+                    addPair(a, neighbours[e]);
                 }
-                for (int[] p : listToBeRemoved) {
-                    savingsPairList.remove(p);
-                    pairList.remove(p);
+            }
+        } else {
+            for (int i = 0; i < nTours && !isExpired(); i++) {
+                for (int j = i + 1; j < nTours; j++) {
+                    addPair(tourOrder[i], tourOrder[j]);
+                    addPair(tourOrder[j], tourOrder[i]);
                 }
             }
         }
-        // If we replaced any tours we call step 2
-        if (toursList.size() != toursBeforeMerge) {
-            step2();
-        }
 
+        endPhase(HeuristicMetrics.SAVINGS_LIST, phaseStart);
+
+        // Call step 3
+        phaseStart = startPhase();
+        step3();
+        endPhase(HeuristicMetrics.MERGES, phaseStart);
     }
 
-    private ArrayList<Integer> stationsInRoute(ArrayList<Integer> mergedTour) {
-        ArrayList<Integer> listStations = new ArrayList<>();
-        for (Integer location : mergedTour) {
-            if (location >= 21 && location <= 26) {
-                listStations.add(location);
+    private void addPair(int location_i, int location_j) {
+        int lastLocationInI = lastOf[location_i];
+        double saving = c_matrix.get(lastLocationInI, end) + c_matrix.get(0, location_j) - lambda * c_matrix.get(lastLocationInI, location_j);
+        if (random != null) {
+            saving *= 1 + NOISE * random.nextDouble();
+        }
+        if (saving > 0) {
+            savings.push(saving, location_i, location_j, version[location_i], version[location_j]);
+            if (metrics != null) {
+                metrics.savingsPushed++;
             }
         }
-        return listStations;
     }
 
-    private ArrayList<Integer> insertedStationTour(int[] pair, ArrayList<Integer> tour1, ArrayList<Integer> tour2, ArrayList<Integer> mergedTour) {
-        ArrayList<Integer> tour_i = new ArrayList<>(tour1);
-        ArrayList<Integer> tour_j = new ArrayList<>(tour2);
-        tour_i.remove(tour_i.size() - 1);
-        tour_j.remove(0);
-
-        double minInsertionCost = Double.POSITIVE_INFINITY;
-        int bestStation = 0;
-        ArrayList<Integer> newMergedTour = new ArrayList<>();
+    // Add the pairs of a tour with the tours it can be joined to over a neighbour of its last or first buyer
+    private void addNeighbourPairs(int tour) {
+        int last = lastOf[tour];
+        for (int e = neighbourStart[last]; e < neighbourStart[last + 1]; e++) {
+            int first = neighbours[e];
+            if (routeOf[first] == first && first != tour) {
+                addPair(tour, first);
+            }
+        }
+        for (int e = neighbourStart[tour]; e < neighbourStart[tour + 1]; e++) {
+            int other = routeOf[neighbours[e]];
+            if (other != -1 && other != tour && lastOf[other] == neighbours[e]) {
+                addPair(other, tour);
+            }
+        }
+    }
 
-        for (Integer f : chargingStations) {
-            mergedTour = new ArrayList<>(tour_i);
-            mergedTour.add(f);
-            mergedTour.addAll(tour_j);
+    private void step3() {
+        // Merge along the best remaining saving until the list is exhausted; after every merge only the savings of
+        // the merged tour are recomputed, older entries of both tours are skipped when they reach the top. At the
+        // deadline the tours are left as they are
+        while (!savings.isEmpty() && !isExpired()) {
+            int tour_i = savings.getFrom();
+            int tour_j = savings.getTo();
+            boolean outdated = savings.getFromVersion() != version[tour_i] || savings.getToVersion() != version[tour_j]
+                    || routeOf[tour_i] != tour_i || routeOf[tour_j] != tour_j;
+            savings.pop();
+            if (metrics != null) {
+                metrics.savingsPopped++;
+                if (outdated) {
+                    metrics.outdatedSkipped++;
+                } else {
+                    metrics.mergesAttempted++;
+                }
+            }
+            if (outdated) {
+                continue;
+            }
+            int n = nTours;
 
-            int location_j = pair[1];
-            int lastLocationInI = tour_i.get(tour_i.size() - 1);
-            double insertionCost = c_matrix[lastLocationInI][f] + c_matrix[f][location_j] - c_matrix[lastLocationInI][nLocations-1] - c_matrix[0][location_j];
-            if (insertionCost < minInsertionCost && isFeasible(mergedTour)) {
-                bestStation = f;
-                minInsertionCost = insertionCost;
-                newMergedTour = new ArrayList<>(mergedTour);
+            // If feasible we can replace the tour immediately
+            if (isMergeFeasible(tour_i, tour_j, 0)) {
+                mergeTours(tour_i, tour_j, 0);
+            }
+            // Else we check if it is time feasible, and try to insert a station
+            else if (isMergeTimeFeasible(tour_i, tour_j, 0)) {
+                int station = insertedStation(tour_i, tour_j);
+                if (station != 0) {
+                    if (metrics != null) {
+                        metrics.stationMerges++;
+                    }
+                    mergeTours(tour_i, tour_j, station);
+                    if (stationsInRoute(tour_i, stationBuffer) > 1) {
+                        removeStations(tour_i, bestRemoval, getRedundantStations(tour_i));
+                    }
+                }
+            }
+            if (n != nTours) {
+                if (metrics != null) {
+                    metrics.mergesAccepted++;
+                    metrics.savingsUpdates++;
+                }
+                version[tour_i]++;
+                version[tour_j]++;
+                if (neighbours != null) {
+                    addNeighbourPairs(tour_i);
+                } else {
+                    for (int t = 0; t < nTours; t++) {
+                        if (tourOrder[t] != tour_i) {
+                            addPair(tour_i, tourOrder[t]);
+                            addPair(tourOrder[t], tour_i);
+                        }
+                    }
+                }
             }
         }
-        // If a station can be added, add the best one
-        if (bestStation != 0) {
-            int finalBestStation = bestStation;
-            chargingStations.removeIf(station -> station == finalBestStation);
-            return newMergedTour;
+    }
+
+    // Append tour_j (and the station in between, if any) to tour_i, keeping tour_i's first buyer as identifier
+    private void mergeTours(int tour_i, int tour_j, int station) {
+        int last = lastOf[tour_i];
+        if (station != 0) {
+            next[last] = station;
+            previous[station] = last;
+            routeOf[station] = tour_i;
+            stationAvailable[station] = false;
+            last = station;
         }
-        // Else, return null (will be used in step 5 to determine if a station could be added)
-        else {
-            return null;
+        next[last] = tour_j;
+        previous[tour_j] = last;
+        for (int location = tour_j; location != end; location = next[location]) {
+            routeOf[location] = tour_i;
         }
+        lastOf[tour_i] = lastOf[tour_j];
+        summarize(tour_i);
 
+        // The merged tour replaces both tours at the end of the tour order
+        int t = 0;
+        for (int s = 0; s < nTours; s++) {
+            if (tourOrder[s] != tour_i && tourOrder[s] != tour_j) {
+                tourOrder[t++] = tourOrder[s];
+            }
+        }
+        tourOrder[t] = tour_i;
+        nTours = t + 1;
     }
 
-    private ArrayList<Integer> getMergedTour(ArrayList<Integer> tour_i, ArrayList<Integer> tour_j) {
-        ArrayList<Integer> mergedTour = new ArrayList<>();
-        mergedTour.add(0);
-        for (int i = 1; i < tour_i.size() - 1; i++) {
-            mergedTour.add(tour_i.get(i));
-        }
-        for (int j = 1; j < tour_j.size() - 1; j++) {
-            mergedTour.add(tour_j.get(j));
+    // Remove the stations at the given positions (in route order) from a tour
+    private void removeStations(int tour, int[] removal, int size) {
+        stationsInRoute(tour, stationBuffer);
+        for (int r = 0; r < size; r++) {
+            int station = stationBuffer[removal[r]];
+            next[previous[station]] = next[station];
+            if (next[station] != end) {
+                previous[next[station]] = previous[station];
+            } else {
+                lastOf[tour] = previous[station];
+            }
+            routeOf[station] = -1;
+            stationAvailable[station] = true;
         }
-        mergedTour.add(nLocations - 1);
-        return mergedTour;
+        summarize(tour);
     }
 
-    private ArrayList<Integer> getRedundantStations(ArrayList<Integer> mergedTour, ArrayList<Integer> stationsInRoute) {
-        List<ArrayList<Integer>> feasibleRemovals = new ArrayList<>();
-        ArrayList<Integer> checkFeasibility;
-        findAllCombinations(stationsInRoute);
-        for (ArrayList<Integer> comb : result) {
-            checkFeasibility = new ArrayList<>(mergedTour);
-            checkFeasibility.removeAll(comb);
-            if (isFeasible(checkFeasibility)) {
-                feasibleRemovals.add(comb);
+    // Recompute the segment summaries of a tour after it changed
+    private void summarize(int tour) {
+        double charge = 0;
+        double time = 0;
+        int nStations = 0;
+        for (int location = tour; location != end; location = next[location]) {
+            if (isStation(location)) {
+                stationCharge[location] = charge;
+                summaryBuffer[nStations++] = location;
+            }
+            if (next[location] != end) {
+                charge += q_matrix.get(location, next[location]);
+                time += t_matrix.get(location, next[location]);
             }
         }
-
-        int maxCombSize = 0;
-        for (ArrayList<Integer> comb : feasibleRemovals) {
-            maxCombSize = Math.max(maxCombSize, comb.size());
+        interiorCharge[tour] = charge;
+        interiorTime[tour] = time;
+        stationTimeBeforeLast[tour] = 0;
+        if (nStations == 0) {
+            firstStation[tour] = 0;
+            lastStation[tour] = 0;
+            headCharge[tour] = charge;
+            tailCharge[tour] = charge;
+            threshold[tour] = 0;
+            return;
         }
 
-        // Remove all feasible combination options that are not of the maximum size
-        int finalMaxCombSize = maxCombSize;
-        feasibleRemovals.removeIf(comb -> comb.size() < finalMaxCombSize);
-
-        // Find the combination option with minimum cost
-        double minSavingCost = Double.POSITIVE_INFINITY;
-        ArrayList<Integer> bestComb = new ArrayList<>();
-        ArrayList<Integer> temp;
-        for (ArrayList<Integer> comb : feasibleRemovals) {
-            temp = new ArrayList<>(mergedTour);
-            temp.removeAll(comb);
-            double cost = 0;
-            for (int i = 0; i < temp.size() - 1; i++) {
-                cost += c_matrix[i][i + 1];
+        firstStation[tour] = summaryBuffer[0];
+        lastStation[tour] = summaryBuffer[nStations - 1];
+        headCharge[tour] = stationCharge[firstStation[tour]];
+        tailCharge[tour] = charge - stationCharge[lastStation[tour]];
+        double level = Q - q_matrix.get(0, tour) - headCharge[tour];
+        for (int s = 0; s < nStations; s++) {
+            int station = summaryBuffer[s];
+            if (s < nStations - 1) {
+                int following = summaryBuffer[s + 1];
+                nextStation[station] = following;
+                chargeToNextStop[station] = stationCharge[following];
+                stationTimeBeforeLast[tour] += chargingTime(q_matrix.get(0, tour) + chargeToNextStop[station]);
+                level = levelAtNextStop(level, chargeToNextStop[station] - stationCharge[station]);
+            } else {
+                nextStation[station] = 0;
+                chargeToNextStop[station] = charge + q_matrix.get(lastOf[tour], end);
             }
-            if (cost < minSavingCost) {
-                minSavingCost = cost;
-                bestComb = comb;
+        }
+        lastStationLevel[tour] = level;
+
+        // From the first station on every station charges what is needed to reach the next stop, so any
+        // non-negative level at the first station ends non-negative, unless a stretch between stops needs more than Q
+        threshold[tour] = 0;
+        for (int s = 0; s < nStations; s++) {
+            int station = summaryBuffer[s];
+            if (levelAtNextStop(0, chargeToNextStop[station] - stationCharge[station]) < -EPSILON) {
+                threshold[tour] = Double.POSITIVE_INFINITY;
             }
         }
-        return bestComb;
     }
 
-    // Check if a location is part of the tour + return its position in the tour (return -1 if it is not part of the tour)
-    private int isInTour(ArrayList<Integer> tour, int location) {
-        for (int i = 0; i < tour.size(); i++) {
-            if (tour.get(i) == location) {
-                return i;
-            }
+    // Charge level at the next stop after charging at a station, as in RouteEvaluator.isChargeFeasible: the station
+    // charges what is needed, but never beyond a full battery, and a vehicle that could not reach it stays short
+    private double levelAtNextStop(double level, double used) {
+        if (level < -EPSILON) {
+            return level - used;
         }
-        return -1;
+        return Math.max(level, Math.min(Q, used)) - used;
     }
 
-    private double computeDistance(ArrayList<Integer> tour) {
-        double distance = 0;
-        for (int i = 0; i < tour.size() - 1; i++) {
-            distance += d_matrix[tour.get(i)][tour.get(i + 1)];
+    // Charging time at a station when the cumulative charge used up to the next stop is given, as in RouteEvaluator.isTimeFeasible
+    private double chargingTime(double cumulativeCharge) {
+        double xi = Math.max(0, Math.min(Q, cumulativeCharge - Q));
+        return xi * xi / 100;
+    }
+
+    // Charge level arriving at the stop after the last location of tour_i, leaving towards location with used charge
+    private double levelAfterTour(int tour_i, int location, double used) {
+        if (lastStation[tour_i] == 0) {
+            return Q - q_matrix.get(0, tour_i) - interiorCharge[tour_i] - q_matrix.get(lastOf[tour_i], location) - used;
         }
-        return distance;
+        return levelAtNextStop(lastStationLevel[tour_i], tailCharge[tour_i] + q_matrix.get(lastOf[tour_i], location) + used);
     }
 
-    private double computeCost(ArrayList<Integer> tour) {
-        double cost = 0;
-        for (int i = 0; i < tour.size() - 1; i++) {
-            cost += c_matrix[tour.get(i)][tour.get(i + 1)];
+    // Charge used from the first location of a tour up to its first station, or up to and including the depot
+    private double chargeToFirstStop(int tour) {
+        if (firstStation[tour] == 0) {
+            return interiorCharge[tour] + q_matrix.get(lastOf[tour], end);
         }
-        return cost;
+        return headCharge[tour];
     }
 
-    private double computeTime(ArrayList<Integer> tour) {
-        double currentChargeLevel = 50;
-        double time = 0;
-        for (int i = 0; i < tour.size() - 1; i++) {
-            double xi = 0;
-            if (tour.get(i) >= nV + 1 && tour.get(i) <= nV + nC) {
-                xi = -currentChargeLevel;
-                for (int j = i; j < tour.size() - 1; j++) {
-                    xi += q_matrix[tour.get(j)][tour.get(j + 1)];
-
-                    if (tour.get(j + 1) >= nV + 1 && tour.get(j + 1) <= nV + nC + 1) {
-                        break;
-                    }
-                }
-            }
-            xi = Math.min(Q, xi);
-            time += t_matrix[tour.get(i)][tour.get(i + 1)];
-            time += xi * xi / 100;
-            currentChargeLevel += Math.max(0, xi);
-            currentChargeLevel -= q_matrix[tour.get(i)][tour.get(i + 1)];
+    // Same verdict as RouteEvaluator.isChargeFeasible on the tour depot, tour_i, station (if not 0), tour_j, depot
+    private boolean isMergeChargeFeasible(int tour_i, int tour_j, int station) {
+        if (metrics != null) {
+            metrics.chargeChecks++;
+        }
+        double level;
+        if (station == 0) {
+            level = levelAfterTour(tour_i, tour_j, chargeToFirstStop(tour_j));
+        } else {
+            level = levelAfterTour(tour_i, station, 0);
+            level = levelAtNextStop(level, q_matrix.get(station, tour_j) + chargeToFirstStop(tour_j));
         }
-        return time;
+        return level >= threshold[tour_j] - EPSILON;
     }
 
-    private double computeCharge(ArrayList<Integer> tour) {
-        double cost = 0;
-        for (int i = 0; i < tour.size() - 1; i++) {
-            cost += q_matrix[tour.get(i)][tour.get(i + 1)];
+    // Same verdict as RouteEvaluator.isTimeFeasible on the tour depot, tour_i, station (if not 0), tour_j, depot
+    private boolean isMergeTimeFeasible(int tour_i, int tour_j, int station) {
+        if (metrics != null) {
+            metrics.timeChecks++;
+        }
+        int last = lastOf[tour_i];
+        double time = t_matrix.get(0, tour_i) + interiorTime[tour_i] + interiorTime[tour_j] + t_matrix.get(lastOf[tour_j], end);
+        double charge = q_matrix.get(0, tour_i) + interiorCharge[tour_i];
+        if (station != 0) {
+            time += t_matrix.get(last, station);
+            charge += q_matrix.get(last, station);
+            last = station;
+        }
+        time += t_matrix.get(last, tour_j);
+        double chargeAtJ = charge + q_matrix.get(last, tour_j);
+        if (lastStation[tour_i] != 0) {
+            time += stationTimeBeforeLast[tour_i];
+            time += chargingTime(station != 0 ? charge : chargeAtJ + chargeToFirstStop(tour_j));
+        }
+        if (station != 0) {
+            time += chargingTime(chargeAtJ + chargeToFirstStop(tour_j));
+        }
+        for (int s = firstStation[tour_j]; s != 0; s = nextStation[s]) {
+            time += chargingTime(chargeAtJ + chargeToNextStop[s]);
         }
-        return cost;
+        return time <= T;
     }
 
-    private boolean isFeasible(ArrayList<Integer> tour) {
-        if (isChargeFeasible(tour) && isTimeFeasible(tour)) {
-            return true;
-        } else {
-            return false;
+    private boolean isMergeFeasible(int tour_i, int tour_j, int station) {
+        return isMergeChargeFeasible(tour_i, tour_j, station) && isMergeTimeFeasible(tour_i, tour_j, station);
+    }
+
+    private int stationsInRoute(int tour, int[] stations) {
+        int count = 0;
+        for (int location = tour; location != end; location = next[location]) {
+            if (isStation(location)) {
+                stations[count++] = location;
+            }
         }
+        return count;
     }
 
-    private boolean isChargeFeasible(ArrayList<Integer> tour) {
-        double currentChargeLevel = 50;
-        for (int i = 0; i < tour.size() - 1; i++) {
-            double xi = 0;
-            if (tour.get(i) >= nV + 1 && tour.get(i) <= nV + nC) {
-                xi = -currentChargeLevel;
-                for (int j = i; j < tour.size() - 1; j++) {
-                    xi += q_matrix[tour.get(j)][tour.get(j + 1)];
+    // Returns the station with the cheapest feasible insertion between tour_i and tour_j, 0 if there is none
+    private int insertedStation(int tour_i, int tour_j) {
+        double minInsertionCost = Double.POSITIVE_INFINITY;
+        int bestStation = 0;
+        if (metrics != null) {
+            metrics.stationInsertions++;
+        }
 
-                    if (tour.get(j + 1) >= nV + 1 && tour.get(j + 1) <= nV + nC + 1) {
-                        break;
-                    }
+        int lastLocationInI = lastOf[tour_i];
+        if (stationIndex != null) {
+            // Stations come in increasing detour, so the first feasible one is the cheapest; only stations with the
+            // same detour (up to round-off) can still tie with it
+            double bestDetour = Double.POSITIVE_INFINITY;
+            stationIndex.query(lastLocationInI, tour_j);
+            for (int f = stationIndex.nextStation(); f != 0; f = stationIndex.nextStation()) {
+                if (stationIndex.getDetour() > bestDetour + EPSILON) {
+                    break;
+                }
+                if (!stationAvailable[f]) {
+                    continue;
+                }
+                double insertionCost = c_matrix.get(lastLocationInI, f) + c_matrix.get(f, tour_j) - c_matrix.get(lastLocationInI, end) - c_matrix.get(0, tour_j);
+                boolean better = insertionCost < minInsertionCost || (insertionCost == minInsertionCost && f < bestStation);
+                if (better && metrics != null) {
+                    metrics.stationsTried++;
+                }
+                if (better && isMergeFeasible(tour_i, tour_j, f)) {
+                    bestStation = f;
+                    minInsertionCost = insertionCost;
+                    bestDetour = stationIndex.getDetour();
                 }
             }
-            xi = Math.min(Q, xi);
-            xi = Math.max(0, xi);
-            currentChargeLevel += xi;
-            currentChargeLevel -= q_matrix[tour.get(i)][tour.get(i + 1)];
+            return bestStation;
         }
-        if (currentChargeLevel >= 0) {
-            return true;
-        } else {
-            return false;
+        for (int f = nV + 1; f <= nV + nC; f++) {
+            if (!stationAvailable[f]) {
+                continue;
+            }
+            double insertionCost = c_matrix.get(lastLocationInI, f) + c_matrix.get(f, tour_j) - c_matrix.get(lastLocationInI, end) - c_matrix.get(0, tour_j);
+            if (insertionCost < minInsertionCost && metrics != null) {
+                metrics.stationsTried++;
+            }
+            if (insertionCost < minInsertionCost && isMergeFeasible(tour_i, tour_j, f)) {
+                bestStation = f;
+                minInsertionCost = insertionCost;
+            }
         }
+        // If a station can be added return the best one, else 0 (will be used in step 5 to determine if a station could be added)
+        return bestStation;
     }
 
-    private boolean isTimeFeasible(ArrayList<Integer> tour) {
-        double currentChargeLevel = 50;
-        double time = 0;
-        for (int i = 0; i < tour.size() - 1; i++) {
-            double xi = 0;
-            if (tour.get(i) >= nV + 1 && tour.get(i) <= nV + nC) {
-                xi = -currentChargeLevel;
-                for (int j = i; j < tour.size() - 1; j++) {
-                    xi += q_matrix[tour.get(j)][tour.get(j + 1)];
-
-                    if (tour.get(j + 1) >= nV + 1 && tour.get(j + 1) <= nV + nC + 1) {
-                        break;
+    private int fillTour(int tour, int[] buffer) {
+        int length = 0;
+        buffer[length++] = 0;
+        for (int location = tour; location != end; location = next[location]) {
+            buffer[length++] = location;
+        }
+        buffer[length++] = end;
+        return length;
+    }
+
+    // Finds the largest set of stations whose removal keeps the tour feasible, with the lowest remaining cost, and
+    // stores their positions (in route order) in bestRemoval. Removals are visited lazily from the largest size down
+    // and the search stops at the first size with a feasible removal.
+    // Returns the number of stations to remove
+    private int getRedundantStations(int tour) {
+        int length = fillTour(tour, tourBuffer);
+        int nStations = stationsInRoute(tour, stationBuffer);
+        if (metrics != null) {
+            metrics.redundantSearches++;
+        }
+
+        for (int size = nStations; size > 0; size--) {
+            double minSavingCost = Double.POSITIVE_INFINITY;
+            for (int r = 0; r < size; r++) {
+                removalBuffer[r] = r;
+            }
+            removalBuffer[size] = nStations;
+            do {
+                int candidateLength = removeFromTour(removalBuffer, size, length);
+                if (metrics != null) {
+                    metrics.removalsEvaluated++;
+                }
+                if (evaluator.isFeasible(candidateBuffer, candidateLength)) {
+                    double cost = evaluator.computeCost(candidateBuffer, candidateLength);
+                    if (cost < minSavingCost) {
+                        minSavingCost = cost;
+                        System.arraycopy(removalBuffer, 0, bestRemoval, 0, size);
                     }
                 }
+            } while (nextRemoval(removalBuffer, size));
+            if (minSavingCost < Double.POSITIVE_INFINITY) {
+                return size;
             }
-            xi = Math.min(Q, xi);
-            xi = Math.max(0, xi);
-            time += t_matrix[tour.get(i)][tour.get(i + 1)];
-            time += xi * xi / 100;
-            currentChargeLevel -= q_matrix[tour.get(i)][tour.get(i + 1)];
-        }
-        if (time <= T) {
-            return true;
-        } else {
-            return false;
         }
+        return 0;
     }
 
-    /**
-     * Compute all combinations for a set L
-     *
-     * @param elements The set L for which all combinations are computed
-     */
-    public void findAllCombinations(ArrayList<Integer> elements) {
-        result.clear();
-        result.add(new ArrayList<>());
-        List<ArrayList<Integer>> functionResult = new ArrayList<>();
-        findCombinations(elements, 0, new ArrayList<>(), functionResult);
-        result.addAll(functionResult);
+    // Advance to the next removal of the same size in co-lexicographic order, false if it was the last one.
+    // removal[size] holds the number of stations as a sentinel
+    private boolean nextRemoval(int[] removal, int size) {
+        for (int r = 0; r < size; r++) {
+            if (removal[r] + 1 < removal[r + 1]) {
+                removal[r]++;
+                for (int k = 0; k < r; k++) {
+                    removal[k] = k;
+                }
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void findCombinations(List<Integer> elements, int startingIndex, List<Integer> currentPartition, List<ArrayList<Integer>> processResult) {
-        for (int i = startingIndex; i < elements.size(); i++) {
-            ArrayList<Integer> newPartition = new ArrayList<>(currentPartition);
-            newPartition.add(elements.get(i));
-            processResult.add(newPartition);
-            findCombinations(elements, i + 1, newPartition, processResult);
+    // Write the tour in the tour buffer without the stations at the given positions to the candidate buffer and
+    // return its length
+    private int removeFromTour(int[] removal, int size, int length) {
+        int candidateLength = 0;
+        int s = 0;
+        int r = 0;
+        for (int i = 0; i < length; i++) {
+            int location = tourBuffer[i];
+            if (isStation(location) && r < size && s++ == removal[r]) {
+                r++;
+                continue;
+            }
+            candidateBuffer[candidateLength++] = location;
         }
+        return candidateLength;
+    }
+
+    private boolean isStation(int location) {
+        return location >= nV + 1 && location <= nV + nC;
     }
 }
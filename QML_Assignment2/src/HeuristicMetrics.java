@@ -0,0 +1,153 @@
+/**
+ * Counters and phase times of the Heuristic, collected when enabled with Heuristic.setMetrics. A Heuristic (and
+ * every start of the multi-start mode) counts into its own instance, so the counters are plain fields without
+ * synchronisation; the starts are added up when they are done. Heuristic.getMetrics returns a copy.
+ * The savings list is only built in full once per step 2 pass; the savings of merged tours are added to the existing
+ * list as updates.
+ */
+public class HeuristicMetrics {
+    public static final int NEIGHBOUR_LISTS = 0;
+    public static final int SAVINGS_LIST = 1;
+    public static final int MERGES = 2;
+    public static final int LOCAL_SEARCH = 3;
+    public static final int ALNS = 4;
+    static final String[] PHASES = {"neighbour lists", "savings list", "merges", "local search", "ALNS"};
+
+    long step2Passes;
+    long savingsPushed; // pairs with a positive saving added to the savings list, in builds and updates
+    long savingsUpdates; // merged tours whose savings were added again
+    long savingsPopped;
+    long outdatedSkipped; // popped pairs of tours that changed since they were added
+    long mergesAttempted;
+    long mergesAccepted;
+    long stationMerges; // accepted merges with an inserted charging station
+    long chargeChecks; // merge charge checks on the segment summaries
+    long timeChecks; // merge time checks on the segment summaries
+    long routeChecks; // full route checks by the RouteEvaluator: station removals, and the moves of ALNS
+    long stationInsertions; // merges for which a station to insert was searched
+    long stationsTried; // stations whose insertion was checked for feasibility
+    long redundantSearches;
+    long removalsEvaluated; // subsets of stations whose removal was checked
+    long[] phaseTime = new long[PHASES.length]; // nanoseconds
+
+    HeuristicMetrics copy() {
+        HeuristicMetrics copy = new HeuristicMetrics();
+        copy.add(this);
+        return copy;
+    }
+
+    void add(HeuristicMetrics other) {
+        step2Passes += other.step2Passes;
+        savingsPushed += other.savingsPushed;
+        savingsUpdates += other.savingsUpdates;
+        savingsPopped += other.savingsPopped;
+        outdatedSkipped += other.outdatedSkipped;
+        mergesAttempted += other.mergesAttempted;
+        mergesAccepted += other.mergesAccepted;
+        stationMerges += other.stationMerges;
+        chargeChecks += other.chargeChecks;
+        timeChecks += other.timeChecks;
+        routeChecks += other.routeChecks;
+        stationInsertions += other.stationInsertions;
+        stationsTried += other.stationsTried;
+        redundantSearches += other.redundantSearches;
+        removalsEvaluated += other.removalsEvaluated;
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            phaseTime[phase] += other.phaseTime[phase];
+        }
+    }
+
+    public long getStep2Passes() {
+        return step2Passes;
+    }
+
+    public long getSavingsPushed() {
+        return savingsPushed;
+    }
+
+    public long getSavingsUpdates() {
+        return savingsUpdates;
+    }
+
+    public long getSavingsPopped() {
+        return savingsPopped;
+    }
+
+    public long getOutdatedSkipped() {
+        return outdatedSkipped;
+    }
+
+    public long getMergesAttempted() {
+        return mergesAttempted;
+    }
+
+    public long getMergesAccepted() {
+        return mergesAccepted;
+    }
+
+    public long getStationMerges() {
+        return stationMerges;
+    }
+
+    public long getChargeChecks() {
+        return chargeChecks;
+    }
+
+    public long getTimeChecks() {
+        return timeChecks;
+    }
+
+    public long getRouteChecks() {
+        return routeChecks;
+    }
+
+    public long getStationInsertions() {
+        return stationInsertions;
+    }
+
+    public long getStationsTried() {
+        return stationsTried;
+    }
+
+    public long getRedundantSearches() {
+        return redundantSearches;
+    }
+
+    public long getRemovalsEvaluated() {
+        return removalsEvaluated;
+    }
+
+    /**
+     * @param phase NEIGHBOUR_LISTS, SAVINGS_LIST, MERGES, LOCAL_SEARCH or ALNS
+     * @return the time spent in the phase in seconds, summed over the starts of the multi-start mode
+     */
+    public double getPhaseTime(int phase) {
+        return phaseTime[phase] / 1e9;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append("Step 2 passes = ").append(step2Passes)
+                .append(", savings pushed = ").append(savingsPushed)
+                .append(", savings updates = ").append(savingsUpdates)
+                .append(", popped = ").append(savingsPopped)
+                .append(", outdated = ").append(outdatedSkipped).append('\n');
+        text.append("Merges attempted = ").append(mergesAttempted)
+                .append(", accepted = ").append(mergesAccepted)
+                .append(", with station = ").append(stationMerges).append('\n');
+        text.append("Feasibility checks: charge = ").append(chargeChecks)
+                .append(", time = ").append(timeChecks)
+                .append(", route = ").append(routeChecks).append('\n');
+        text.append("Station insertions = ").append(stationInsertions)
+                .append(", stations tried = ").append(stationsTried).append('\n');
+        text.append("Redundant station searches = ").append(redundantSearches)
+                .append(", removals evaluated = ").append(removalsEvaluated).append('\n');
+        text.append("Phase times:");
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            text.append(' ').append(PHASES[phase]).append(" = ").append(getPhaseTime(phase)).append(" s")
+                    .append(phase + 1 < PHASES.length ? "," : "");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,82 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event with the counters of one Heuristic.solveModel, committed when its metrics are enabled.
+ */
+@Name("qml.HeuristicMetrics")
+@Label("Heuristic Metrics")
+@Category({"QML", "Heuristic"})
+@Description("Hot-path counters of one run of the savings heuristic")
+public class HeuristicMetricsEvent extends Event {
+    @Label("Step 2 Passes")
+    long step2Passes;
+
+    @Label("Savings Pushed")
+    long savingsPushed;
+
+    @Label("Savings Updates")
+    long savingsUpdates;
+
+    @Label("Savings Popped")
+    long savingsPopped;
+
+    @Label("Outdated Savings Skipped")
+    long outdatedSkipped;
+
+    @Label("Merges Attempted")
+    long mergesAttempted;
+
+    @Label("Merges Accepted")
+    long mergesAccepted;
+
+    @Label("Merges With Station")
+    long stationMerges;
+
+    @Label("Charge Checks")
+    long chargeChecks;
+
+    @Label("Time Checks")
+    long timeChecks;
+
+    @Label("Route Checks")
+    long routeChecks;
+
+    @Label("Station Insertions")
+    long stationInsertions;
+
+    @Label("Stations Tried")
+    long stationsTried;
+
+    @Label("Redundant Station Searches")
+    long redundantSearches;
+
+    @Label("Removals Evaluated")
+    long removalsEvaluated;
+
+    static void commit(HeuristicMetrics metrics) {
+        HeuristicMetricsEvent event = new HeuristicMetricsEvent();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.step2Passes = metrics.step2Passes;
+        event.savingsPushed = metrics.savingsPushed;
+        event.savingsUpdates = metrics.savingsUpdates;
+        event.savingsPopped = metrics.savingsPopped;
+        event.outdatedSkipped = metrics.outdatedSkipped;
+        event.mergesAttempted = metrics.mergesAttempted;
+        event.mergesAccepted = metrics.mergesAccepted;
+        event.stationMerges = metrics.stationMerges;
+        event.chargeChecks = metrics.chargeChecks;
+        event.timeChecks = metrics.timeChecks;
+        event.routeChecks = metrics.routeChecks;
+        event.stationInsertions = metrics.stationInsertions;
+        event.stationsTried = metrics.stationsTried;
+        event.redundantSearches = metrics.redundantSearches;
+        event.removalsEvaluated = metrics.removalsEvaluated;
+        event.commit();
+    }
+}
@@ -0,0 +1,22 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event of one phase of the Heuristic, committed when its metrics are enabled.
+ */
+@Name("qml.HeuristicPhase")
+@Label("Heuristic Phase")
+@Category({"QML", "Heuristic"})
+@Description("Neighbour lists, savings list, merges, local search or ALNS of one construction")
+public class HeuristicPhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long time;
+}
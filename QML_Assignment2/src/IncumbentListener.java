@@ -0,0 +1,15 @@
+/**
+ * Receives every improved feasible solution while ChargingVRP or the Heuristic solves, e.g. to dispatch the best
+ * routes known so far before the solver finishes. Calls can come from the solver's threads, but never at the same
+ * time, and always with a lower objective than the previous call.
+ */
+public interface IncumbentListener {
+    /**
+     * @param routes Routes of the solution, each from depot 0 to depot n-1; they must not be modified
+     * @param objective Total cost of the routes
+     * @param gap Relative gap between the objective and the best bound, NaN if no bound is known (e.g. for the
+     *            Heuristic)
+     * @param seconds Time since the start of solveModel
+     */
+    void improved(int[][] routes, double objective, double gap, double seconds);
+}
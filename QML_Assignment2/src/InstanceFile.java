@@ -0,0 +1,191 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.stream.IntStream;
+
+/**
+ * Binary instance file, read through a memory mapping so that large instances load without parsing text or
+ * recomputing distances. All values are little-endian:
+ * - header of HEADER_BYTES: magic, version, number of locations, buyers, charging stations, dimensions and flags
+ * - roles: one byte per location (DEPOT, BUYER or STATION), padded to a multiple of 8 bytes
+ * - coordinates: locations doubles per dimension, as coordinates[dimension][location]
+ * - if HAS_ARCS is set: distances, required charges and travel times, each the lower triangle of its matrix row by
+ * row, n(n+1)/2 doubles
+ * Locations are ordered as the models expect them: depot 0, buyers 1..nV, stations nV+1..nV+nC and depot nV+nC+1.
+ */
+public class InstanceFile {
+    public static final byte DEPOT = 0;
+    public static final byte BUYER = 1;
+    public static final byte STATION = 2;
+
+    private static final int MAGIC = 0x494C4D51; // "QMLI"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int HAS_ARCS = 1;
+
+    private int nLocations;
+    private int nV;
+    private int nC;
+    private byte[] roles;
+    private double[][] coordinates;
+    private DoubleBuffer[] arcs; // distances, charges and times, null if they are not stored
+    private DistanceMatrix distances;
+
+    private InstanceFile() {
+    }
+
+    /**
+     * @param coordinates Coordinates of every location as coordinates[dimension][location], depots included
+     * @param numLocations Number of buyers
+     * @param numChargeStations Number of charging stations
+     * @param withArcs True to also store the distances, charges and times, so loading computes nothing
+     */
+    public static void write(File file, double[][] coordinates, int numLocations, int numChargeStations, boolean withArcs) throws IOException {
+        int n = coordinates[0].length;
+        int dimensions = coordinates.length;
+        if (n != numLocations + numChargeStations + 2) {
+            throw new IllegalArgumentException("Expected " + (numLocations + numChargeStations + 2) + " locations, got " + n);
+        }
+        long coordinatesStart = HEADER_BYTES + padded(n);
+        long arcsStart = coordinatesStart + 8L * dimensions * n;
+        long triangleBytes = 8L * n * (n + 1) / 2;
+        long length = arcsStart + (withArcs ? 3 * triangleBytes : 0);
+
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(length);
+            FileChannel channel = output.getChannel();
+
+            MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, 0, coordinatesStart);
+            header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(numLocations).putInt(numChargeStations)
+                    .putInt(dimensions).putInt(withArcs ? HAS_ARCS : 0);
+            for (int location = 0; location < n; location++) {
+                byte role = location == 0 || location == n - 1 ? DEPOT : location <= numLocations ? BUYER : STATION;
+                header.put(HEADER_BYTES + location, role);
+            }
+
+            DoubleBuffer points = map(channel, FileChannel.MapMode.READ_WRITE, coordinatesStart, arcsStart - coordinatesStart).asDoubleBuffer();
+            for (int dimension = 0; dimension < dimensions; dimension++) {
+                points.put(coordinates[dimension]);
+            }
+
+            if (withArcs) {
+                DoubleBuffer d = map(channel, FileChannel.MapMode.READ_WRITE, arcsStart, triangleBytes).asDoubleBuffer();
+                DoubleBuffer q = map(channel, FileChannel.MapMode.READ_WRITE, arcsStart + triangleBytes, triangleBytes).asDoubleBuffer();
+                DoubleBuffer t = map(channel, FileChannel.MapMode.READ_WRITE, arcsStart + 2 * triangleBytes, triangleBytes).asDoubleBuffer();
+                IntStream.range(0, n).parallel().forEach(i -> {
+                    int rowStart = (int) ((long) i * (i + 1) / 2);
+                    for (int j = 0; j <= i; j++) {
+                        double distance = DistanceMatrix.euclideanDistance(coordinates, i, j);
+                        d.put(rowStart + j, distance);
+                        q.put(rowStart + j, 10 + Math.pow(distance, 0.75));
+                        t.put(rowStart + j, 5 + Math.pow(distance, 0.9));
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Map an instance file. Only the header, roles and coordinates are read; stored distances stay in the mapping.
+     */
+    public static InstanceFile read(File file) throws IOException {
+        InstanceFile instance = new InstanceFile();
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            FileChannel channel = input.getChannel();
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(file + " is not an instance file");
+            }
+            MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is not an instance file of version " + VERSION);
+            }
+            int n = header.getInt();
+            instance.nLocations = n;
+            instance.nV = header.getInt();
+            instance.nC = header.getInt();
+            int dimensions = header.getInt();
+            boolean withArcs = (header.getInt() & HAS_ARCS) != 0;
+
+            long coordinatesStart = HEADER_BYTES + padded(n);
+            long arcsStart = coordinatesStart + 8L * dimensions * n;
+            long triangleBytes = 8L * n * (n + 1) / 2;
+            if (n != instance.nV + instance.nC + 2 || channel.size() < arcsStart + (withArcs ? 3 * triangleBytes : 0)) {
+                throw new IOException(file + " is truncated or inconsistent");
+            }
+
+            instance.roles = new byte[n];
+            map(channel, FileChannel.MapMode.READ_ONLY, HEADER_BYTES, n).get(instance.roles);
+            instance.coordinates = new double[dimensions][n];
+            DoubleBuffer points = map(channel, FileChannel.MapMode.READ_ONLY, coordinatesStart, arcsStart - coordinatesStart).asDoubleBuffer();
+            for (int dimension = 0; dimension < dimensions; dimension++) {
+                points.get(instance.coordinates[dimension]);
+            }
+
+            if (withArcs) {
+                instance.arcs = new DoubleBuffer[3];
+                for (int a = 0; a < 3; a++) {
+                    instance.arcs[a] = map(channel, FileChannel.MapMode.READ_ONLY, arcsStart + a * triangleBytes, triangleBytes).asDoubleBuffer();
+                }
+            }
+        }
+        return instance;
+    }
+
+    // Sections are mapped one by one, since a single mapping is limited to 2 GB
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Section of " + size + " bytes is too large to map");
+        }
+        MappedByteBuffer buffer = channel.map(mode, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static long padded(int bytes) {
+        return (bytes + 7L) / 8 * 8;
+    }
+
+    public int getNumLocations() {
+        return nLocations;
+    }
+
+    public int getNumBuyers() {
+        return nV;
+    }
+
+    public int getNumChargeStations() {
+        return nC;
+    }
+
+    /**
+     * @return DEPOT, BUYER or STATION
+     */
+    public byte getRole(int location) {
+        return roles[location];
+    }
+
+    public double[][] getCoordinates() {
+        return coordinates;
+    }
+
+    /**
+     * @return the stored distances read from the mapping, with the stored charges and times preloaded for
+     * ArcAttributes to read from the mapping as well, or the Euclidean distances computed from the coordinates if the
+     * file has no arcs
+     */
+    public synchronized DistanceMatrix getDistances() {
+        if (distances == null) {
+            if (arcs != null) {
+                distances = DistanceMatrix.triangle(arcs[0], nLocations, coordinates);
+                ArcAttributes.preload(distances, arcs[1], arcs[2]);
+            } else {
+                distances = DistanceMatrix.euclidean(coordinates);
+            }
+        }
+        return distances;
+    }
+}
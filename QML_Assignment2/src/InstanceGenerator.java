@@ -0,0 +1,88 @@
+import java.util.Random;
+
+/**
+ * Seeded random instances in the layout the models expect: the depot at the origin (locations 0 and nV+nC+1),
+ * buyers 1..nV and charging stations nV+1..nV+nC. The locations lie in a square around the depot that is sized from
+ * Q and T so that every buyer can be visited on its own, driving straight from and back to the depot.
+ * - RANDOM: buyers uniform over the square
+ * - CLUSTERED: buyers normally distributed around uniformly placed cluster centres
+ * - MIXED: half of the buyers uniform, the other half clustered
+ * Charging stations are always uniform over the square.
+ */
+public class InstanceGenerator {
+    public enum Layout {
+        RANDOM, CLUSTERED, MIXED
+    }
+
+    private static final int BUYERS_PER_CLUSTER = 25;
+    private static final double CLUSTER_SPREAD = 0.05; // standard deviation around a centre, as share of the side
+
+    private Random random;
+    private double Q;
+    private double T;
+    private double halfSide;
+
+    /**
+     * @param maxElectricity Q of the instances
+     * @param maxTime T of the instances
+     * @param seed Seed of the random numbers, equal seeds and settings give equal instances
+     */
+    public InstanceGenerator(double maxElectricity, double maxTime, long seed) {
+        Q = maxElectricity;
+        T = maxTime;
+        random = new Random(seed);
+
+        // Largest distance d with 2 (10 + d^0.75) <= Q and 2 (5 + d^0.9) <= T, so the corners are still reachable
+        double chargeRadius = Math.pow(Math.max(Q / 2 - 10, 0), 1 / 0.75);
+        double timeRadius = Math.pow(Math.max(T / 2 - 5, 0), 1 / 0.9);
+        halfSide = Math.min(chargeRadius, timeRadius) / Math.sqrt(2);
+    }
+
+    public double getMaxCharge() {
+        return Q;
+    }
+
+    public double getMaxTime() {
+        return T;
+    }
+
+    /**
+     * @param numLocations Number of buyers nV
+     * @param numChargeStations Number of charging stations nC
+     * @return the coordinates of every location as coordinates[dimension][location]
+     */
+    public double[][] generate(Layout layout, int numLocations, int numChargeStations) {
+        double[][] coordinates = new double[2][numLocations + numChargeStations + 2];
+        int clustered = layout == Layout.RANDOM ? 0 : layout == Layout.CLUSTERED ? numLocations : numLocations / 2;
+
+        int clusters = Math.max(1, (clustered + BUYERS_PER_CLUSTER - 1) / BUYERS_PER_CLUSTER);
+        double[][] centres = new double[2][clusters];
+        for (int c = 0; c < clusters; c++) {
+            centres[0][c] = uniform();
+            centres[1][c] = uniform();
+        }
+        for (int location = 1; location <= numLocations; location++) {
+            if (location <= clustered) {
+                int c = random.nextInt(clusters);
+                coordinates[0][location] = clamp(centres[0][c] + random.nextGaussian() * CLUSTER_SPREAD * 2 * halfSide);
+                coordinates[1][location] = clamp(centres[1][c] + random.nextGaussian() * CLUSTER_SPREAD * 2 * halfSide);
+            } else {
+                coordinates[0][location] = uniform();
+                coordinates[1][location] = uniform();
+            }
+        }
+        for (int location = numLocations + 1; location <= numLocations + numChargeStations; location++) {
+            coordinates[0][location] = uniform();
+            coordinates[1][location] = uniform();
+        }
+        return coordinates;
+    }
+
+    private double uniform() {
+        return (2 * random.nextDouble() - 1) * halfSide;
+    }
+
+    private double clamp(double coordinate) {
+        return Math.max(-halfSide, Math.min(halfSide, coordinate));
+    }
+}
@@ -0,0 +1,294 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads coordinates from CSV files of any length, one location per line and one column per dimension, and puts
+ * them in the order the models expect. The input is parsed byte by byte from a fixed buffer, so no String is created
+ * per line. Numbers may be integers or decimals, with an optional exponent; a first line that is not numeric is
+ * skipped as a header, and so is a UTF-8 byte order mark.
+ */
+public class InstanceLoader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Integers up to 10^15 and these powers of ten are exact doubles, so one multiplication or division rounds right
+    private static final int EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private InputStream input;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private long line = 1;
+
+    // Text of the number being parsed, only turned into a String when it has too many digits for the fast path
+    private byte[] token = new byte[64];
+    private int tokenLength;
+
+    private InstanceLoader(InputStream input) {
+        this.input = input;
+    }
+
+    /**
+     * @return the coordinates as coordinates[dimension][row]
+     */
+    public static double[][] readCoordinates(File file) throws IOException {
+        try (InputStream input = new FileInputStream(file)) {
+            return readCoordinates(input);
+        }
+    }
+
+    public static double[][] readCoordinates(InputStream input) throws IOException {
+        return new InstanceLoader(input).read();
+    }
+
+    /**
+     * Coordinates of every location as coordinates[dimension][location]: the depot at 0, the buyers at 1..nV, the
+     * charging stations at nV+1..nV+nC and the depot again at nV+nC+1.
+     *
+     * @param depot Coordinates of the depot
+     * @param buyers Coordinates of the buyers as buyers[dimension][buyer]
+     * @param stations Coordinates of the charging stations as stations[dimension][station], may have no columns
+     */
+    public static double[][] layout(double[] depot, double[][] buyers, double[][] stations) {
+        int nV = buyers[0].length;
+        int nC = stations.length == 0 ? 0 : stations[0].length;
+        double[][] coordinates = new double[depot.length][nV + nC + 2];
+        for (int dimension = 0; dimension < depot.length; dimension++) {
+            coordinates[dimension][0] = depot[dimension];
+            System.arraycopy(buyers[dimension], 0, coordinates[dimension], 1, nV);
+            if (nC > 0) {
+                System.arraycopy(stations[dimension], 0, coordinates[dimension], nV + 1, nC);
+            }
+            coordinates[dimension][nV + nC + 1] = depot[dimension];
+        }
+        return coordinates;
+    }
+
+    private double[][] read() throws IOException {
+        double[] row = new double[4];
+        double[][] columns = null;
+        int rows = 0;
+        skipByteOrderMark();
+        while (true) {
+            long rowLine = line;
+            int fields = 0;
+            int c = peek();
+            if (c < 0) {
+                break;
+            }
+            // Parse the fields of one line
+            boolean header = false;
+            while (true) {
+                skipBlanks();
+                c = peek();
+                if (c < 0 || c == '\n' || c == '\r') {
+                    break;
+                }
+                if (fields == row.length) {
+                    row = Arrays.copyOf(row, 2 * fields);
+                }
+                if (!parseNumber(row, fields)) {
+                    if (rows == 0 && columns == null) {
+                        header = true;
+                        skipLine();
+                        break;
+                    }
+                    throw unexpected(rowLine, peek(), "a number");
+                }
+                fields++;
+                skipBlanks();
+                c = peek();
+                if (c == ',') {
+                    position++;
+                    skipBlanks();
+                    c = peek();
+                    if (c < 0 || c == '\n' || c == '\r') {
+                        throw new IOException("Line " + rowLine + ": no number after the last comma");
+                    }
+                } else if (c >= 0 && c != '\n' && c != '\r') {
+                    throw unexpected(rowLine, c, "a comma");
+                }
+            }
+            endLine();
+            if (header || fields == 0) {
+                continue;
+            }
+
+            if (columns == null) {
+                columns = new double[fields][1024];
+            } else if (fields != columns.length) {
+                throw new IOException("Line " + rowLine + ": " + fields + " columns instead of " + columns.length);
+            }
+            if (rows == columns[0].length) {
+                for (int dimension = 0; dimension < columns.length; dimension++) {
+                    columns[dimension] = Arrays.copyOf(columns[dimension], 2 * rows);
+                }
+            }
+            for (int dimension = 0; dimension < fields; dimension++) {
+                columns[dimension][rows] = row[dimension];
+            }
+            rows++;
+        }
+        if (columns == null) {
+            return new double[0][];
+        }
+        for (int dimension = 0; dimension < columns.length; dimension++) {
+            columns[dimension] = Arrays.copyOf(columns[dimension], rows);
+        }
+        return columns;
+    }
+
+    // Parse [sign] digits [. digits] [e [sign] digits] into values[index]; false if no digit was found
+    private boolean parseNumber(double[] values, int index) throws IOException {
+        tokenLength = 0;
+        boolean negative = false;
+        int c = peek();
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            take();
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean digits = false;
+        boolean exact = true;
+        boolean fraction = false;
+        while (true) {
+            c = peek();
+            if (c >= '0' && c <= '9') {
+                digits = true;
+                take();
+                if (mantissa == 0 && c == '0') {
+                    if (fraction) {
+                        exponent--;
+                    }
+                    continue;
+                }
+                if (significantDigits < EXACT_DIGITS) {
+                    mantissa = 10 * mantissa + (c - '0');
+                    significantDigits++;
+                    if (fraction) {
+                        exponent--;
+                    }
+                } else {
+                    exact = false;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+                take();
+            } else {
+                break;
+            }
+        }
+        if (!digits) {
+            return false;
+        }
+        if (c == 'e' || c == 'E') {
+            take();
+            boolean negativeExponent = false;
+            c = peek();
+            if (c == '-' || c == '+') {
+                negativeExponent = c == '-';
+                take();
+            }
+            int power = 0;
+            boolean exponentDigits = false;
+            while ((c = peek()) >= '0' && c <= '9') {
+                exponentDigits = true;
+                power = Math.min(10 * power + (c - '0'), 100000);
+                take();
+            }
+            if (!exponentDigits) {
+                return false;
+            }
+            exponent += negativeExponent ? -power : power;
+        }
+
+        double value;
+        if (exact && exponent >= -22 && exponent <= 22) {
+            value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            value = negative ? -value : value;
+        } else {
+            value = Double.parseDouble(new String(token, 0, tokenLength, StandardCharsets.US_ASCII));
+        }
+        values[index] = value;
+        return true;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit) {
+            limit = input.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    private static IOException unexpected(long line, int c, String expected) {
+        if (c < 0) {
+            return new IOException("Line " + line + ": unexpected end of file, expected " + expected);
+        }
+        if (c < ' ' || c > '~') {
+            return new IOException(String.format("Line %d: unexpected byte 0x%02X, expected %s", line, c, expected));
+        }
+        return new IOException("Line " + line + ": expected " + expected);
+    }
+
+    // Skip a UTF-8 byte order mark (EF BB BF) at the start of the input
+    private void skipByteOrderMark() throws IOException {
+        if (peek() != 0xEF) {
+            return;
+        }
+        position++;
+        if (peek() != 0xBB) {
+            throw unexpected(line, peek(), "a byte order mark");
+        }
+        position++;
+        if (peek() != 0xBF) {
+            throw unexpected(line, peek(), "a byte order mark");
+        }
+        position++;
+    }
+
+    // Consume the byte returned by peek as part of the current number
+    private void take() {
+        if (tokenLength == token.length) {
+            token = Arrays.copyOf(token, 2 * tokenLength);
+        }
+        token[tokenLength++] = buffer[position++];
+    }
+
+    private void skipBlanks() throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\t') {
+            position++;
+        }
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        while ((c = peek()) >= 0 && c != '\n' && c != '\r') {
+            position++;
+        }
+    }
+
+    // Consume a line ending (\n, \r\n or \r), if there is one
+    private void endLine() throws IOException {
+        int c = peek();
+        if (c == '\r') {
+            position++;
+            c = peek();
+        }
+        if (c == '\n') {
+            position++;
+        }
+        line++;
+    }
+}
@@ -0,0 +1,786 @@
+import java.util.Arrays;
+
+/**
+ * Local search on the routes of a solution (every route runs from depot 0 to depot n-1). The change in cost of a
+ * move is computed in constant time from the arcs it removes and adds, and only improving moves are checked for
+ * feasibility, under the same charge and time rules as the RouteEvaluator uses for the construction. A candidate
+ * route is checked from the pieces of the current routes it is made of: the state at the end of a prefix is looked
+ * up in the summaries of its route, and a piece of a route is crossed one charge point at a time, so a check costs
+ * the number of stations it passes and the locations that are moved, not the length of the route. The operators are
+ * applied as a variable neighbourhood descent: after a sweep that improved the solution the search goes back to the
+ * first operator, and it stops when no operator improves any more, or when its time limit has passed.
+ * A route left without buyers is dropped, which frees its stations.
+ */
+public class LocalSearch {
+    private static final double IMPROVEMENT = 1e-9; // smallest decrease in cost that counts as an improvement
+    private static final int MAX_SEGMENT = 3; // longest segment moved by or-opt and cross-exchange
+    private static final String[] OPERATORS = {"2-opt", "or-opt", "relocate", "swap", "cross-exchange", "station"};
+
+    // Round-off allowed on the final charge level, as in the RouteEvaluator
+    private static final double EPSILON = 1e-9;
+
+    private RouteEvaluator evaluator;
+    private DistanceMatrix c_matrix;
+    private DistanceMatrix q_matrix;
+    private DistanceMatrix t_matrix;
+    private double Q;
+    private double T;
+    private int nV;
+    private int nC;
+    private int end;
+
+    private int[][] routes;
+    private int[] length;
+    private int[] buyers; // number of buyers in every route
+    private double[] cost;
+    private int nRoutes;
+    private int[] routeOf; // route a location is in, -1 if it is in no route
+    private int[] positionOf;
+
+    // Summaries of every route, indexed by position, of the check state on arrival at the location; a charge point
+    // is a station or the end depot
+    private double[][] levelAt; // charge level on arrival at the last charge point (or leaving the depot)
+    private boolean[][] chargesAt; // whether the last charge point is a station, which charges for the next leg
+    private double[][] sinceAt; // charge used since the last charge point
+    private double[][] usedAt; // charge used since the depot
+    private double[][] travelAt; // travel time since the depot
+    private double[][] timeAt; // travel time and charging time of the stations before the last charge point
+    private int[][] nextChargePoint; // first position at or after this one with a charge point, the length after the end
+
+    // Check state of the candidate route: the same quantities after the last location visited
+    private double level;
+    private boolean charges;
+    private double since;
+    private double used;
+    private double elapsed;
+    private int last;
+
+    // Optional neighbour lists of the buyers; when given, inter-route moves only consider routes near a buyer
+    private int[] neighbourStart;
+    private int[] neighbours;
+    private int[] routeMark;
+    private int stamp;
+
+    // Scratch routes used to evaluate moves without allocating
+    private int[] bufferA;
+    private int[] bufferB;
+    private int[] bufferC;
+    private int[] single = new int[1];
+
+    private int operator;
+    private int[] moves;
+    private double[] improvement;
+    private long[] time;
+    private double startCost;
+    private double endCost;
+    private long totalTime;
+    private long searchStart;
+    private long timeLimit; // nanoseconds the current improve may take
+
+    public LocalSearch(RouteEvaluator evaluator, DistanceMatrix costs, int numLocations, int numChargeStations) {
+        this.evaluator = evaluator;
+        c_matrix = costs;
+        q_matrix = evaluator.getCharges();
+        t_matrix = evaluator.getTimes();
+        Q = evaluator.getMaxCharge();
+        T = evaluator.getMaxTime();
+        nV = numLocations;
+        nC = numChargeStations;
+        end = costs.size() - 1;
+        routeOf = new int[costs.size()];
+        positionOf = new int[costs.size()];
+        bufferA = new int[costs.size() + 1];
+        bufferB = new int[costs.size() + 1];
+        bufferC = new int[costs.size() + 1];
+        moves = new int[OPERATORS.length];
+        improvement = new double[OPERATORS.length];
+        time = new long[OPERATORS.length];
+    }
+
+    /**
+     * Restrict the inter-route moves of a buyer to the routes that contain one of its neighbours.
+     *
+     * @param start Neighbours of buyer v are list[start[v]..start[v + 1] - 1]
+     */
+    public void setNeighbours(int[] start, int[] list) {
+        neighbourStart = start;
+        neighbours = list;
+    }
+
+    /**
+     * @param initial Feasible routes, each starting at depot 0 and ending at depot n-1
+     * @return the improved routes
+     */
+    public int[][] improve(int[][] initial) {
+        return improve(initial, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param initial Feasible routes, each starting at depot 0 and ending at depot n-1
+     * @param seconds Time after which no further move is searched; the routes improved so far are returned
+     * @return the improved routes
+     */
+    public int[][] improve(int[][] initial, double seconds) {
+        long startTime = System.nanoTime();
+        searchStart = startTime;
+        timeLimit = (long) (seconds * 1e9);
+        load(initial);
+        startCost = getTotalCost();
+
+        operator = 0;
+        while (operator < OPERATORS.length && !isExpired()) {
+            long sweepStart = System.nanoTime();
+            double before = getTotalCost();
+            boolean improved = sweep(operator);
+            compact();
+            time[operator] += System.nanoTime() - sweepStart;
+            improvement[operator] += before - getTotalCost();
+            operator = improved ? 0 : operator + 1;
+        }
+
+        endCost = getTotalCost();
+        totalTime += System.nanoTime() - startTime;
+        return getRoutes();
+    }
+
+    public int[][] getRoutes() {
+        int[][] result = new int[nRoutes][];
+        for (int r = 0; r < nRoutes; r++) {
+            result[r] = Arrays.copyOf(routes[r], length[r]);
+        }
+        return result;
+    }
+
+    /**
+     * @return the decrease in cost of the last call to improve
+     */
+    public double getImprovement() {
+        return startCost - endCost;
+    }
+
+    /**
+     * @return the time spent in all calls to improve in seconds
+     */
+    public double getTime() {
+        return totalTime / 1e9;
+    }
+
+    public void printStatistics() {
+        System.out.println("Local search: cost " + startCost + " -> " + endCost + " in " + getTime() + " s");
+        System.out.println("Improvement per second = " + (startCost - endCost) / getTime());
+        for (int o = 0; o < OPERATORS.length; o++) {
+            System.out.println(OPERATORS[o] + ": " + moves[o] + " moves, improvement = " + improvement[o]
+                    + ", time = " + time[o] / 1e9 + " s");
+        }
+    }
+
+    private boolean isExpired() {
+        return System.nanoTime() - searchStart >= timeLimit;
+    }
+
+    private boolean sweep(int o) {
+        switch (o) {
+            case 0:
+                return twoOpt();
+            case 1:
+                return orOpt();
+            case 2:
+                return relocate();
+            case 3:
+                return swap();
+            case 4:
+                return crossExchange();
+            default:
+                return moveStations();
+        }
+    }
+
+    // Reverse a part of a route
+    private boolean twoOpt() {
+        boolean improved = false;
+        for (int r = 0; r < nRoutes && !isExpired(); r++) {
+            boolean changed = true;
+            while (changed && buyers[r] > 0) {
+                changed = false;
+                int[] route = routes[r];
+                int len = length[r];
+                search:
+                for (int i = 1; i < len - 2; i++) {
+                    double interior = 0;
+                    double reversed = 0;
+                    for (int j = i + 1; j < len - 1; j++) {
+                        interior += c_matrix.get(route[j - 1], route[j]);
+                        reversed += c_matrix.get(route[j], route[j - 1]);
+                        double delta = c_matrix.get(route[i - 1], route[j]) + c_matrix.get(route[i], route[j + 1])
+                                - c_matrix.get(route[i - 1], route[i]) - c_matrix.get(route[j], route[j + 1]) + reversed - interior;
+                        if (delta < -IMPROVEMENT) {
+                            begin(r, i - 1);
+                            for (int k = j; k >= i; k--) {
+                                visit(route[k]);
+                            }
+                            follow(r, j + 1, len - 1);
+                            if (isFeasible()) {
+                                System.arraycopy(route, 0, bufferA, 0, len);
+                                for (int k = 0; k <= j - i; k++) {
+                                    bufferA[i + k] = route[j - k];
+                                }
+                                apply(r, bufferA, len);
+                                improved = changed = true;
+                                break search;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    // Move a segment of up to MAX_SEGMENT locations to another position in the same route
+    private boolean orOpt() {
+        boolean improved = false;
+        for (int r = 0; r < nRoutes && !isExpired(); r++) {
+            boolean changed = true;
+            while (changed && buyers[r] > 0) {
+                changed = false;
+                int[] route = routes[r];
+                int len = length[r];
+                search:
+                for (int i = 1; i < len - 1; i++) {
+                    for (int k = 1; k <= MAX_SEGMENT && i + k < len; k++) {
+                        int first = route[i];
+                        int last = route[i + k - 1];
+                        double removal = c_matrix.get(route[i - 1], route[i + k]) - c_matrix.get(route[i - 1], first) - c_matrix.get(last, route[i + k]);
+                        for (int p = 1; p < len; p++) {
+                            if (p >= i && p <= i + k) {
+                                continue;
+                            }
+                            double delta = removal + c_matrix.get(route[p - 1], first) + c_matrix.get(last, route[p]) - c_matrix.get(route[p - 1], route[p]);
+                            if (delta < -IMPROVEMENT && isMoveFeasible(r, i, k, p)) {
+                                int shortened = splice(bufferC, route, len, i, i + k, route, 0, 0);
+                                int target = p < i ? p : p - k;
+                                int candidateLength = splice(bufferA, bufferC, shortened, target, target, route, i, i + k);
+                                apply(r, bufferA, candidateLength);
+                                improved = changed = true;
+                                break search;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    // Move a buyer to another route
+    private boolean relocate() {
+        boolean improved = false;
+        nextBuyer:
+        for (int u = 1; u <= nV && !isExpired(); u++) {
+            int a = routeOf[u];
+            if (a < 0) {
+                continue;
+            }
+            int i = positionOf[u];
+            int[] ra = routes[a];
+            double deltaA = buyers[a] == 1 ? -cost[a] : c_matrix.get(ra[i - 1], ra[i + 1]) - c_matrix.get(ra[i - 1], u) - c_matrix.get(u, ra[i + 1]);
+            int removable = 0; // 1 if route a stays feasible without u, -1 if not, 0 while unknown
+            markRoutesNear(u);
+            for (int b = 0; b < nRoutes; b++) {
+                if (b == a || buyers[b] == 0 || !isNear(b)) {
+                    continue;
+                }
+                int[] rb = routes[b];
+                for (int p = 1; p < length[b]; p++) {
+                    double delta = deltaA + c_matrix.get(rb[p - 1], u) + c_matrix.get(u, rb[p]) - c_matrix.get(rb[p - 1], rb[p]);
+                    if (delta < -IMPROVEMENT && removable == 0) {
+                        removable = isRemovalFeasible(a, i) ? 1 : -1;
+                    }
+                    if (delta < -IMPROVEMENT && removable > 0 && isInsertionFeasible(b, p, u)) {
+                        int lengthA = splice(bufferA, ra, length[a], i, i + 1, ra, 0, 0);
+                        int lengthB = splice(bufferB, rb, length[b], p, p, ra, i, i + 1);
+                        apply(a, lengthA, b, lengthB);
+                        improved = true;
+                        continue nextBuyer;
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    // Exchange two buyers of different routes
+    private boolean swap() {
+        boolean improved = false;
+        for (int u = 1; u <= nV && !isExpired(); u++) {
+            if (neighbours == null) {
+                for (int v = u + 1; v <= nV; v++) {
+                    if (trySwap(u, v)) {
+                        improved = true;
+                        break;
+                    }
+                }
+            } else {
+                for (int e = neighbourStart[u]; e < neighbourStart[u + 1]; e++) {
+                    if (neighbours[e] > u && trySwap(u, neighbours[e])) {
+                        improved = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    private boolean trySwap(int u, int v) {
+        int a = routeOf[u];
+        int b = routeOf[v];
+        if (a < 0 || b < 0 || a == b) {
+            return false;
+        }
+        int i = positionOf[u];
+        int j = positionOf[v];
+        int[] ra = routes[a];
+        int[] rb = routes[b];
+        double delta = c_matrix.get(ra[i - 1], v) + c_matrix.get(v, ra[i + 1]) - c_matrix.get(ra[i - 1], u) - c_matrix.get(u, ra[i + 1])
+                + c_matrix.get(rb[j - 1], u) + c_matrix.get(u, rb[j + 1]) - c_matrix.get(rb[j - 1], v) - c_matrix.get(v, rb[j + 1]);
+        if (delta >= -IMPROVEMENT || !isReplacementFeasible(a, i, v) || !isReplacementFeasible(b, j, u)) {
+            return false;
+        }
+        int lengthA = splice(bufferA, ra, length[a], i, i + 1, rb, j, j + 1);
+        int lengthB = splice(bufferB, rb, length[b], j, j + 1, ra, i, i + 1);
+        apply(a, lengthA, b, lengthB);
+        return true;
+    }
+
+    // Exchange two segments of up to MAX_SEGMENT locations between two routes, keeping their direction
+    private boolean crossExchange() {
+        boolean improved = false;
+        for (int a = 0; a < nRoutes && !isExpired(); a++) {
+            if (buyers[a] == 0) {
+                continue;
+            }
+            markRoutesNear(routes[a], length[a]);
+            nextRoute:
+            for (int b = a + 1; b < nRoutes; b++) {
+                if (buyers[b] == 0 || !isNear(b)) {
+                    continue;
+                }
+                int[] ra = routes[a];
+                int[] rb = routes[b];
+                for (int i = 1; i < length[a] - 1; i++) {
+                    int segmentBuyersA = 0;
+                    for (int k = 1; k <= MAX_SEGMENT && i + k < length[a]; k++) {
+                        if (isBuyer(ra[i + k - 1])) {
+                            segmentBuyersA++;
+                        }
+                        for (int j = 1; j < length[b] - 1; j++) {
+                            int segmentBuyersB = 0;
+                            for (int l = 1; l <= MAX_SEGMENT && j + l < length[b]; l++) {
+                                if (isBuyer(rb[j + l - 1])) {
+                                    segmentBuyersB++;
+                                }
+                                if (k == 1 && l == 1) {
+                                    continue;
+                                }
+                                boolean emptiesA = buyers[a] - segmentBuyersA + segmentBuyersB == 0;
+                                boolean emptiesB = buyers[b] - segmentBuyersB + segmentBuyersA == 0;
+                                double deltaA = emptiesA ? -cost[a]
+                                        : c_matrix.get(ra[i - 1], rb[j]) + c_matrix.get(rb[j + l - 1], ra[i + k]) - c_matrix.get(ra[i - 1], ra[i]) - c_matrix.get(ra[i + k - 1], ra[i + k]);
+                                double deltaB = emptiesB ? -cost[b]
+                                        : c_matrix.get(rb[j - 1], ra[i]) + c_matrix.get(ra[i + k - 1], rb[j + l]) - c_matrix.get(rb[j - 1], rb[j]) - c_matrix.get(rb[j + l - 1], rb[j + l]);
+                                if (deltaA + deltaB < -IMPROVEMENT && (emptiesA || isExchangeFeasible(a, i, k, b, j, l))
+                                        && (emptiesB || isExchangeFeasible(b, j, l, a, i, k))) {
+                                    int lengthA = splice(bufferA, ra, length[a], i, i + k, rb, j, j + l);
+                                    int lengthB = splice(bufferB, rb, length[b], j, j + l, ra, i, i + k);
+                                    apply(a, lengthA, b, lengthB);
+                                    improved = true;
+                                    continue nextRoute;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    // Remove a station from its route, or replace it by a station (possibly itself) at another position in the route
+    private boolean moveStations() {
+        boolean improved = false;
+        for (int r = 0; r < nRoutes && !isExpired(); r++) {
+            boolean changed = true;
+            while (changed && buyers[r] > 0) {
+                changed = false;
+                int[] route = routes[r];
+                int len = length[r];
+                search:
+                for (int i = 1; i < len - 1; i++) {
+                    int s = route[i];
+                    if (!evaluator.isStation(s)) {
+                        continue;
+                    }
+                    double removal = c_matrix.get(route[i - 1], route[i + 1]) - c_matrix.get(route[i - 1], s) - c_matrix.get(s, route[i + 1]);
+                    int shortened = splice(bufferC, route, len, i, i + 1, route, 0, 0);
+                    if (removal < -IMPROVEMENT && isRemovalFeasible(r, i)) {
+                        apply(r, bufferC, shortened);
+                        improved = changed = true;
+                        break;
+                    }
+                    for (int f = nV + 1; f <= nV + nC; f++) {
+                        if (routeOf[f] != -1 && f != s) {
+                            continue;
+                        }
+                        for (int p = 1; p < shortened; p++) {
+                            double delta = removal + c_matrix.get(bufferC[p - 1], f) + c_matrix.get(f, bufferC[p]) - c_matrix.get(bufferC[p - 1], bufferC[p]);
+                            if (delta < -IMPROVEMENT && isStationMoveFeasible(r, i, p, f)) {
+                                single[0] = f;
+                                int candidateLength = splice(bufferA, bufferC, shortened, p, p, single, 0, 1);
+                                apply(r, bufferA, candidateLength);
+                                improved = changed = true;
+                                break search;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    // Write source with source[from..to-1] replaced by insert[insertFrom..insertTo-1] to target and return its length
+    private int splice(int[] target, int[] source, int sourceLength, int from, int to, int[] insert, int insertFrom, int insertTo) {
+        System.arraycopy(source, 0, target, 0, from);
+        System.arraycopy(insert, insertFrom, target, from, insertTo - insertFrom);
+        System.arraycopy(source, to, target, from + insertTo - insertFrom, sourceLength - to);
+        return sourceLength - (to - from) + (insertTo - insertFrom);
+    }
+
+    private void apply(int r, int[] candidate, int candidateLength) {
+        clear(r);
+        write(r, candidate, candidateLength);
+        moves[operator]++;
+    }
+
+    private void apply(int a, int lengthA, int b, int lengthB) {
+        clear(a);
+        clear(b);
+        write(a, bufferA, lengthA);
+        write(b, bufferB, lengthB);
+        moves[operator]++;
+    }
+
+    // Route r with the segment at positions i..i+k-1 moved to before position p. A route that is left without buyers
+    // is dropped, so the checks below are only made for routes that keep a buyer.
+    private boolean isMoveFeasible(int r, int i, int k, int p) {
+        int len = length[r];
+        if (p < i) {
+            begin(r, p - 1);
+            follow(r, i, i + k - 1);
+            follow(r, p, i - 1);
+            follow(r, i + k, len - 1);
+        } else {
+            begin(r, i - 1);
+            follow(r, i + k, p - 1);
+            follow(r, i, i + k - 1);
+            follow(r, p, len - 1);
+        }
+        return isFeasible();
+    }
+
+    // Route r without the location at position i
+    private boolean isRemovalFeasible(int r, int i) {
+        if (evaluator.isStation(routes[r][i]) ? buyers[r] == 0 : buyers[r] == 1) {
+            return true;
+        }
+        begin(r, i - 1);
+        follow(r, i + 1, length[r] - 1);
+        return isFeasible();
+    }
+
+    // Route r with location u inserted before position p
+    private boolean isInsertionFeasible(int r, int p, int u) {
+        begin(r, p - 1);
+        visit(u);
+        follow(r, p, length[r] - 1);
+        return isFeasible();
+    }
+
+    // Route r with location u instead of the one at position i
+    private boolean isReplacementFeasible(int r, int i, int u) {
+        begin(r, i - 1);
+        visit(u);
+        follow(r, i + 1, length[r] - 1);
+        return isFeasible();
+    }
+
+    // Route a with its positions i..i+k-1 replaced by positions j..j+l-1 of route b
+    private boolean isExchangeFeasible(int a, int i, int k, int b, int j, int l) {
+        begin(a, i - 1);
+        follow(b, j, j + l - 1);
+        follow(a, i + k, length[a] - 1);
+        return isFeasible();
+    }
+
+    // Route r without the station at position i, and station f inserted before position p of the route without it
+    private boolean isStationMoveFeasible(int r, int i, int p, int f) {
+        int len = length[r];
+        if (p <= i) {
+            begin(r, p - 1);
+            visit(f);
+            follow(r, p, i - 1);
+            follow(r, i + 1, len - 1);
+        } else {
+            begin(r, i - 1);
+            follow(r, i + 1, p);
+            visit(f);
+            follow(r, p + 1, len - 1);
+        }
+        return isFeasible();
+    }
+
+    // Start the check state of a candidate route with the locations of route r up to position p
+    private void begin(int r, int p) {
+        level = levelAt[r][p];
+        charges = chargesAt[r][p];
+        since = sinceAt[r][p];
+        used = usedAt[r][p];
+        elapsed = timeAt[r][p];
+        last = routes[r][p];
+    }
+
+    private void visit(int location) {
+        double charge = q_matrix.get(last, location);
+        since += charge;
+        used += charge;
+        elapsed += t_matrix.get(last, location);
+        last = location;
+        if (location > nV) {
+            reachChargePoint(location);
+        }
+    }
+
+    // At a station the vehicle charges what it needs to reach the next charge point, but never beyond a full battery,
+    // and a vehicle that could not reach the station stays short. As in the RouteEvaluator, the charging time is
+    // computed from the charge used since the depot, without the earlier charging.
+    private void reachChargePoint(int location) {
+        if (charges) {
+            if (level >= -EPSILON) {
+                level = Math.max(level, Math.min(Q, since));
+            }
+            double xiTime = Math.max(0, Math.min(Q, used - Q));
+            elapsed += xiTime * xiTime / 100;
+        }
+        level -= since;
+        charges = evaluator.isStation(location);
+        since = 0;
+    }
+
+    // Visit the locations of route r at positions from..to, from one charge point to the next
+    private void follow(int r, int from, int to) {
+        if (from > to) {
+            return;
+        }
+        visit(routes[r][from]);
+        int[] route = routes[r];
+        int[] chargePoint = nextChargePoint[r];
+        double[] usedR = usedAt[r];
+        double[] travelR = travelAt[r];
+        int p = from;
+        while (true) {
+            int q = chargePoint[p + 1];
+            int stop = Math.min(q, to);
+            double charge = usedR[stop] - usedR[p];
+            since += charge;
+            used += charge;
+            elapsed += travelR[stop] - travelR[p];
+            if (q > to) {
+                last = route[to];
+                return;
+            }
+            last = route[q];
+            reachChargePoint(route[q]);
+            p = q;
+        }
+    }
+
+    // The candidate route has reached the end depot
+    private boolean isFeasible() {
+        return level >= -EPSILON && elapsed <= T;
+    }
+
+    // Store the check state on arrival at every location of route r
+    private void summarize(int r) {
+        int[] route = routes[r];
+        int len = length[r];
+        if (levelAt[r] == null || levelAt[r].length < route.length + 1) {
+            levelAt[r] = new double[route.length + 1];
+            chargesAt[r] = new boolean[route.length + 1];
+            sinceAt[r] = new double[route.length + 1];
+            usedAt[r] = new double[route.length + 1];
+            travelAt[r] = new double[route.length + 1];
+            timeAt[r] = new double[route.length + 1];
+            nextChargePoint[r] = new int[route.length + 1];
+        }
+        level = Q;
+        charges = false;
+        since = 0;
+        used = 0;
+        elapsed = 0;
+        last = route[0];
+        for (int p = 0; p < len; p++) {
+            if (p > 0) {
+                travelAt[r][p] = travelAt[r][p - 1] + t_matrix.get(route[p - 1], route[p]);
+                visit(route[p]);
+            }
+            levelAt[r][p] = level;
+            chargesAt[r][p] = charges;
+            sinceAt[r][p] = since;
+            usedAt[r][p] = used;
+            timeAt[r][p] = elapsed;
+        }
+        nextChargePoint[r][len] = len;
+        for (int p = len - 1; p >= 0; p--) {
+            nextChargePoint[r][p] = route[p] > nV ? p : nextChargePoint[r][p + 1];
+        }
+    }
+
+    // Move the routes and their summaries from index from to index to
+    private void moveRoute(int from, int to) {
+        routes[to] = routes[from];
+        length[to] = length[from];
+        buyers[to] = buyers[from];
+        cost[to] = cost[from];
+        levelAt[to] = levelAt[from];
+        chargesAt[to] = chargesAt[from];
+        sinceAt[to] = sinceAt[from];
+        usedAt[to] = usedAt[from];
+        travelAt[to] = travelAt[from];
+        timeAt[to] = timeAt[from];
+        nextChargePoint[to] = nextChargePoint[from];
+    }
+
+    private void clear(int r) {
+        for (int p = 1; p < length[r] - 1; p++) {
+            routeOf[routes[r][p]] = -1;
+        }
+    }
+
+    private void write(int r, int[] candidate, int candidateLength) {
+        buyers[r] = countBuyers(candidate, candidateLength);
+        if (buyers[r] == 0) {
+            routes[r][1] = end;
+            length[r] = 2;
+            cost[r] = 0;
+            summarize(r);
+            return;
+        }
+        if (routes[r].length < candidateLength) {
+            routes[r] = new int[candidateLength + MAX_SEGMENT];
+        }
+        System.arraycopy(candidate, 0, routes[r], 0, candidateLength);
+        length[r] = candidateLength;
+        cost[r] = evaluator.computeCost(candidate, candidateLength);
+        index(r);
+        summarize(r);
+    }
+
+    private void index(int r) {
+        for (int p = 1; p < length[r] - 1; p++) {
+            routeOf[routes[r][p]] = r;
+            positionOf[routes[r][p]] = p;
+        }
+    }
+
+    private void load(int[][] initial) {
+        nRoutes = initial.length;
+        routes = new int[nRoutes][];
+        length = new int[nRoutes];
+        buyers = new int[nRoutes];
+        cost = new double[nRoutes];
+        routeMark = new int[nRoutes];
+        levelAt = new double[nRoutes][];
+        chargesAt = new boolean[nRoutes][];
+        sinceAt = new double[nRoutes][];
+        usedAt = new double[nRoutes][];
+        travelAt = new double[nRoutes][];
+        timeAt = new double[nRoutes][];
+        nextChargePoint = new int[nRoutes][];
+        Arrays.fill(routeOf, -1);
+        for (int r = 0; r < nRoutes; r++) {
+            routes[r] = Arrays.copyOf(initial[r], initial[r].length + MAX_SEGMENT);
+            length[r] = initial[r].length;
+            buyers[r] = countBuyers(initial[r], initial[r].length);
+            cost[r] = evaluator.computeCost(initial[r], initial[r].length);
+            index(r);
+            summarize(r);
+        }
+    }
+
+    // Drop the routes without buyers
+    private void compact() {
+        int kept = 0;
+        for (int r = 0; r < nRoutes; r++) {
+            if (buyers[r] > 0) {
+                moveRoute(r, kept);
+                index(kept);
+                kept++;
+            }
+        }
+        nRoutes = kept;
+    }
+
+    private double getTotalCost() {
+        double total = 0;
+        for (int r = 0; r < nRoutes; r++) {
+            total += cost[r];
+        }
+        return total;
+    }
+
+    private void markRoutesNear(int buyer) {
+        stamp++;
+        if (neighbours != null) {
+            for (int e = neighbourStart[buyer]; e < neighbourStart[buyer + 1]; e++) {
+                if (routeOf[neighbours[e]] >= 0) {
+                    routeMark[routeOf[neighbours[e]]] = stamp;
+                }
+            }
+        }
+    }
+
+    private void markRoutesNear(int[] route, int routeLength) {
+        stamp++;
+        if (neighbours != null) {
+            for (int p = 1; p < routeLength - 1; p++) {
+                if (!isBuyer(route[p])) {
+                    continue;
+                }
+                for (int e = neighbourStart[route[p]]; e < neighbourStart[route[p] + 1]; e++) {
+                    if (routeOf[neighbours[e]] >= 0) {
+                        routeMark[routeOf[neighbours[e]]] = stamp;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isNear(int r) {
+        return neighbours == null || routeMark[r] == stamp;
+    }
+
+    private boolean isBuyer(int location) {
+        return location >= 1 && location <= nV;
+    }
+
+    private int countBuyers(int[] route, int routeLength) {
+        int count = 0;
+        for (int p = 1; p < routeLength - 1; p++) {
+            if (isBuyer(route[p])) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
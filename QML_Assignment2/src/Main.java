@@ -1,7 +1,7 @@
 import ilog.concert.IloException;
 
-import java.io.*;
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
 
 /**
  * @author 574244hn Hoang Thi Khue Nguyen, 562278da Daniël Alblas
@@ -10,42 +10,23 @@ import java.util.ArrayList;
 public class Main {
     public static void main(String[] args) throws IloException {
 //        Try m = new Try();
-        int[][] coordinate_matrix = new int[2][22];
-        coordinate_matrix[0][0] = 0;
-        coordinate_matrix[1][0] = 0;
-        coordinate_matrix[0][21] = 0;
-        coordinate_matrix[1][21] = 0;
-        //Import ruins of Rotterdam location coordinates
-        File file = new File("QML_Assignment2/RuinsRotterdam.csv");
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line = br.readLine();
-            int location = 1;
-            String[] parts = line.split(",");
-            int dimensions = parts.length;
-
-
-            while (line != null) {
-                parts = line.split(",");
-                for (int coordinate = 0; coordinate < dimensions; coordinate++) {
-                    coordinate_matrix[coordinate][location] = Integer.parseInt(parts[coordinate]);
-                }
-
-                location++;
-                line = br.readLine();
-            }
-
+        //Import ruins of Rotterdam and charging station location coordinates
+        double[][] buyers;
+        double[][] stations;
+        try {
+            buyers = InstanceLoader.readCoordinates(new File("QML_Assignment2/RuinsRotterdam.csv"));
+            stations = InstanceLoader.readCoordinates(new File("QML_Assignment2/ChargingStations.csv"));
         } catch (IOException e) {
             e.printStackTrace();
+            return;
         }
+        int nV = buyers[0].length;
+        int nC = stations[0].length;
+        double[] depot = new double[buyers.length];
 
         // Creating distance matrix
-        double[][] distance_matrix = new double[22][22];
-        for (int i = 0; i < 22; i++) {
-            for (int j = 0; j < 22; j++) {
-                distance_matrix[i][j] = Math.sqrt(Math.pow((coordinate_matrix[0][i] - coordinate_matrix[0][j]),2) +
-                        Math.pow((coordinate_matrix[1][i] - coordinate_matrix[1][j]),2));
-            }
-        }
+        double[][] coordinate_matrix = InstanceLoader.layout(depot, buyers, new double[0][]);
+        DistanceMatrix distance_matrix = DistanceMatrix.euclidean(coordinate_matrix);
 
         // VRP
         double maximum_charge = 50;
@@ -56,65 +37,20 @@ public class Main {
         VRP model = new VRP(distance_matrix, maximum_charge, time_limit);
         model.solveModel();
 
-        int[][] coordinate_matrix_temp = new int[2][6];
-        int[][] coordinate_matrix2 = new int[2][28];
-        //Import charging station locations
-        file = new File("QML_Assignment2/ChargingStations.csv");
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line = br.readLine();
-            int location = 0;
-            String[] parts = line.split(",");
-            int dimensions = parts.length;
-
-
-            while (line != null) {
-                parts = line.split(",");
-                for (int coordinate = 0; coordinate < dimensions; coordinate++) {
-                    coordinate_matrix_temp[coordinate][location] = Integer.parseInt(parts[coordinate]);
-                }
-
-                location++;
-                line = br.readLine();
-            }
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        for (int i = 0; i < coordinate_matrix.length; i++) {
-            for (int j = 0; j < coordinate_matrix[0].length-1; j++) {
-                coordinate_matrix2[i][j] = coordinate_matrix[i][j];
-            }
-        }
-
-        for (int i = 0; i < coordinate_matrix_temp.length; i++) {
-            for (int j = 0; j < coordinate_matrix_temp[0].length; j++) {
-                coordinate_matrix2[i][j+21] = coordinate_matrix_temp[i][j];
-            }
-        }
-
-        for (int i = 0; i < 2; i++) {
-            coordinate_matrix2[i][27] = coordinate_matrix[i][21];
-        }
-
         // Creating distance matrix
-        distance_matrix = new double[28][28];
-        for (int i = 0; i < 28; i++) {
-            for (int j = 0; j < 28; j++) {
-                distance_matrix[i][j] = Math.sqrt(Math.pow((coordinate_matrix2[0][i] - coordinate_matrix2[0][j]),2) +
-                        Math.pow((coordinate_matrix2[1][i] - coordinate_matrix2[1][j]),2));
-            }
-        }
+        double[][] coordinate_matrix2 = InstanceLoader.layout(depot, buyers, stations);
+        distance_matrix = DistanceMatrix.euclidean(coordinate_matrix2);
 
         System.out.println();
         System.out.println("Exercise 6");
         // Initialize and solve for the exercise 6
-        ChargingVRP model2 = new ChargingVRP(distance_matrix, maximum_charge, time_limit, 20, 6);
+        ChargingVRP model2 = new ChargingVRP(distance_matrix, maximum_charge, time_limit, nV, nC);
         model2.solveModel();
 
         System.out.println();
         System.out.println("Bonus exercise");
         // Initialize and solve for the bonus exercise
-        Heuristic model3 = new Heuristic(distance_matrix, maximum_charge, time_limit, 20, 6);
+        Heuristic model3 = new Heuristic(distance_matrix, coordinate_matrix2, maximum_charge, time_limit, nV, nC);
+        model3.solveModel();
     }
 }
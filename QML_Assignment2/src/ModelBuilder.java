@@ -0,0 +1,225 @@
+import ilog.concert.IloException;
+import ilog.concert.IloIntVar;
+import ilog.concert.IloLinearNumExpr;
+import ilog.concert.IloNumVar;
+import ilog.cplex.IloCplex;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the rows of the CPLEX formulations in bulk. The arc variables are created in one call and kept in flat
+ * arrays (with a matrix view for lookups), and every row is a single linear expression instead of a chain of nested
+ * sums. The time spent building the model is measured separately from the solve time.
+ */
+public class ModelBuilder {
+    private IloCplex cplex;
+    private int nLocations;
+    private int nArcs;
+    private int[] arcFrom;
+    private int[] arcTo;
+    private int[][] arcIndex; // index of the arc between two locations, -1 if it was pruned
+    private IloIntVar[] arcVars;
+    private IloNumVar[][] z_matrix;
+
+    private long timerStart;
+    private long buildTime;
+
+    public ModelBuilder(IloCplex cplex, ArcFilter arcFilter, int numLocations) throws IloException {
+        startTimer();
+        this.cplex = cplex;
+        nLocations = numLocations;
+        nArcs = arcFilter.getRemainingArcs();
+        arcFrom = new int[nArcs];
+        arcTo = new int[nArcs];
+
+        int arc = 0;
+        for (int i = 0; i < nLocations; i++) {
+            for (int j = 0; j < nLocations; j++) {
+                if (arcFilter.isAllowed(i, j)) {
+                    arcFrom[arc] = i;
+                    arcTo[arc] = j;
+                    arc++;
+                }
+            }
+        }
+
+        arcVars = cplex.boolVarArray(nArcs);
+        z_matrix = new IloNumVar[nLocations][nLocations];
+        arcIndex = new int[nLocations][nLocations];
+        for (int[] row : arcIndex) {
+            Arrays.fill(row, -1);
+        }
+        for (arc = 0; arc < nArcs; arc++) {
+            z_matrix[arcFrom[arc]][arcTo[arc]] = arcVars[arc];
+            arcIndex[arcFrom[arc]][arcTo[arc]] = arc;
+        }
+        stopTimer();
+    }
+
+    /**
+     * @return the arc variables by location, null for arcs that were pruned
+     */
+    public IloNumVar[][] getArcMatrix() {
+        return z_matrix;
+    }
+
+    public IloIntVar[] getArcVariables() {
+        return arcVars;
+    }
+
+    public int getNumberOfArcs() {
+        return nArcs;
+    }
+
+    public int getArcFrom(int arc) {
+        return arcFrom[arc];
+    }
+
+    public int getArcTo(int arc) {
+        return arcTo[arc];
+    }
+
+    /**
+     * @param weights Weight of every arc between two locations
+     * @return the weighted sum of all arc variables as one scalar product
+     */
+    public IloLinearNumExpr weightedArcs(DistanceMatrix weights) throws IloException {
+        double[] coefficients = new double[nArcs];
+        for (int arc = 0; arc < nArcs; arc++) {
+            coefficients[arc] = weights.get(arcFrom[arc], arcTo[arc]);
+        }
+        return cplex.scalProd(coefficients, arcVars);
+    }
+
+    /**
+     * Add the arcs leaving a location towards minTo..maxTo to an expression.
+     */
+    public IloLinearNumExpr addOutgoing(IloLinearNumExpr expr, double coefficient, int from, int minTo, int maxTo) throws IloException {
+        for (int to = minTo; to <= maxTo; to++) {
+            if (z_matrix[from][to] != null) {
+                expr.addTerm(coefficient, z_matrix[from][to]);
+            }
+        }
+        return expr;
+    }
+
+    /**
+     * Add the arcs entering a location from minFrom..maxFrom to an expression.
+     */
+    public IloLinearNumExpr addIncoming(IloLinearNumExpr expr, double coefficient, int to, int minFrom, int maxFrom) throws IloException {
+        for (int from = minFrom; from <= maxFrom; from++) {
+            if (z_matrix[from][to] != null) {
+                expr.addTerm(coefficient, z_matrix[from][to]);
+            }
+        }
+        return expr;
+    }
+
+    /**
+     * Add the big-M propagation of a resource label over every arc ending in minTo..maxTo. An increasing label
+     * gives label[j] >= label[i] + w[i][j] - M(1 - z[i][j]), a decreasing one label[j] <= label[i] - w[i][j] + M(1 - z[i][j]).
+     */
+    public void addPropagation(IloNumVar[] label, DistanceMatrix weights, double bigM, int minTo, int maxTo, boolean increasing) throws IloException {
+        for (int arc = 0; arc < nArcs; arc++) {
+            int i = arcFrom[arc];
+            int j = arcTo[arc];
+            if (j < minTo || j > maxTo) {
+                continue;
+            }
+            IloLinearNumExpr expr = cplex.linearNumExpr();
+            expr.addTerm(1, label[j]);
+            expr.addTerm(-1, label[i]);
+            if (increasing) {
+                expr.addTerm(-(weights.get(i, j) + bigM), arcVars[arc]);
+                cplex.addGe(expr, -bigM);
+            } else {
+                expr.addTerm(weights.get(i, j) + bigM, arcVars[arc]);
+                cplex.addLe(expr, bigM);
+            }
+        }
+    }
+
+    /**
+     * @return true if none of the arcs of the route was pruned
+     */
+    public boolean hasArcs(int[] route) {
+        for (int p = 0; p < route.length - 1; p++) {
+            if (arcIndex[route[p]][route[p + 1]] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a MIP start in which the arcs of the routes are 1 and the label variables take the given values. A
+     * complete start (all locations are covered) also sets all other arcs to 0 and gives every label; a partial one
+     * only fixes the routes and their labels and leaves the rest to CPLEX to repair.
+     *
+     * @param routes Routes from depot 0 to depot n-1
+     * @param labels Label variables by location, e.g. the time and charge of every location
+     * @param values Start values of the labels, indexed as the labels
+     */
+    public void addMIPStart(List<int[]> routes, IloNumVar[][] labels, double[][] values, boolean complete) throws IloException {
+        boolean[] inRoute = new boolean[nLocations];
+        int nStart = 0;
+        for (int[] route : routes) {
+            for (int location : route) {
+                inRoute[location] = true;
+            }
+            nStart += route.length - 1;
+        }
+        int nLabels = 0;
+        for (int location = 0; location < nLocations; location++) {
+            if (complete || inRoute[location]) {
+                nLabels++;
+            }
+        }
+        int size = (complete ? nArcs : nStart) + labels.length * nLabels;
+        IloNumVar[] startVars = new IloNumVar[size];
+        double[] startValues = new double[size];
+
+        int index = 0;
+        if (complete) {
+            System.arraycopy(arcVars, 0, startVars, 0, nArcs);
+            for (int[] route : routes) {
+                for (int p = 0; p < route.length - 1; p++) {
+                    startValues[arcIndex[route[p]][route[p + 1]]] = 1;
+                }
+            }
+            index = nArcs;
+        } else {
+            for (int[] route : routes) {
+                for (int p = 0; p < route.length - 1; p++) {
+                    startVars[index] = arcVars[arcIndex[route[p]][route[p + 1]]];
+                    startValues[index++] = 1;
+                }
+            }
+        }
+        for (int l = 0; l < labels.length; l++) {
+            for (int location = 0; location < nLocations; location++) {
+                if (complete || inRoute[location]) {
+                    startVars[index] = labels[l][location];
+                    startValues[index++] = values[l][location];
+                }
+            }
+        }
+        cplex.addMIPStart(startVars, startValues, complete ? IloCplex.MIPStartEffort.Auto : IloCplex.MIPStartEffort.Repair);
+    }
+
+    public void startTimer() {
+        timerStart = System.nanoTime();
+    }
+
+    public void stopTimer() {
+        buildTime += System.nanoTime() - timerStart;
+    }
+
+    /**
+     * @return the time spent building the model in seconds
+     */
+    public double getBuildTime() {
+        return buildTime / 1e9;
+    }
+}
@@ -0,0 +1,28 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of the feasibility check of one route in the ChargingVRP cut loop; its duration is the time
+ * of the charging QP, or of the cache lookup when the route was checked before.
+ */
+@Name("qml.RouteCheck")
+@Label("Route Check")
+@Category({"QML", "ChargingVRP"})
+@Description("Charging QP feasibility check of one route")
+public class RouteCheckEvent extends Event {
+    @Label("Locations")
+    int locations;
+
+    @Label("Stations")
+    @Description("Visited charging stations")
+    int stations;
+
+    @Label("Cached")
+    boolean cached;
+
+    @Label("Feasible")
+    boolean feasible;
+}
@@ -0,0 +1,187 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluates complete routes (depot, locations, depot) under the charge and time rules of the heuristic: a vehicle
+ * leaves the depot full, every station charges what is needed to reach the next stop (but never beyond a full
+ * battery Q, so no stretch between stops can need more than Q), and charging x takes x^2/100 of time. Locations
+ * 1..nV are buyers and nV+1..nV+nC charging stations.
+ */
+public class RouteEvaluator {
+    // Round-off allowed on the final charge level, which is exactly 0 whenever the last station charges just enough
+    private static final double EPSILON = 1e-9;
+
+    private int nV;
+    private int nC;
+    private DistanceMatrix d_matrix;
+    private DistanceMatrix c_matrix;
+    private DistanceMatrix q_matrix;
+    private DistanceMatrix t_matrix;
+    private double Q;
+    private double T;
+    private LongAdder routeChecks; // calls of isFeasible, null unless counted
+
+    public RouteEvaluator(DistanceMatrix distances, DistanceMatrix costs, DistanceMatrix charges, DistanceMatrix times, double maxElectricity, double maxTime, int numLocations, int numChargeStations) {
+        d_matrix = distances;
+        c_matrix = costs;
+        q_matrix = charges;
+        t_matrix = times;
+        Q = maxElectricity;
+        T = maxTime;
+        nV = numLocations;
+        nC = numChargeStations;
+    }
+
+    public DistanceMatrix getCharges() {
+        return q_matrix;
+    }
+
+    public DistanceMatrix getTimes() {
+        return t_matrix;
+    }
+
+    /**
+     * Count the calls of isFeasible from now on, e.g. for the metrics of the Heuristic. Threads that share the
+     * evaluator can count at the same time.
+     */
+    public void countRouteChecks() {
+        if (routeChecks == null) {
+            routeChecks = new LongAdder();
+        }
+    }
+
+    /**
+     * @return the number of calls of isFeasible since countRouteChecks was first called, 0 if it was not
+     */
+    public long getRouteChecks() {
+        return routeChecks == null ? 0 : routeChecks.sum();
+    }
+
+    public double getMaxCharge() {
+        return Q;
+    }
+
+    public double getMaxTime() {
+        return T;
+    }
+
+    public boolean isStation(int location) {
+        return location >= nV + 1 && location <= nV + nC;
+    }
+
+    public double computeDistance(int[] tour, int length) {
+        double distance = 0;
+        for (int i = 0; i < length - 1; i++) {
+            distance += d_matrix.get(tour[i], tour[i + 1]);
+        }
+        return distance;
+    }
+
+    public double computeCost(int[] tour, int length) {
+        double cost = 0;
+        for (int i = 0; i < length - 1; i++) {
+            cost += c_matrix.get(tour[i], tour[i + 1]);
+        }
+        return cost;
+    }
+
+    public double computeTime(int[] tour, int length) {
+        double currentChargeLevel = Q;
+        double time = 0;
+        for (int i = 0; i < length - 1; i++) {
+            double xi = 0;
+            if (isStation(tour[i])) {
+                xi = -currentChargeLevel;
+                for (int j = i; j < length - 1; j++) {
+                    xi += q_matrix.get(tour[j], tour[j + 1]);
+
+                    if (tour[j + 1] >= nV + 1 && tour[j + 1] <= nV + nC + 1) {
+                        break;
+                    }
+                }
+            }
+            xi = Math.min(Q - currentChargeLevel, xi);
+            time += t_matrix.get(tour[i], tour[i + 1]);
+            time += xi * xi / 100;
+            currentChargeLevel += Math.max(0, xi);
+            currentChargeLevel -= q_matrix.get(tour[i], tour[i + 1]);
+        }
+        return time;
+    }
+
+    public double computeCharge(int[] tour, int length) {
+        double cost = 0;
+        for (int i = 0; i < length - 1; i++) {
+            cost += q_matrix.get(tour[i], tour[i + 1]);
+        }
+        return cost;
+    }
+
+    public boolean isFeasible(int[] tour, int length) {
+        if (routeChecks != null) {
+            routeChecks.increment();
+        }
+        if (isChargeFeasible(tour, length) && isTimeFeasible(tour, length)) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    public boolean isChargeFeasible(int[] tour, int length) {
+        double currentChargeLevel = Q;
+        for (int i = 0; i < length - 1; i++) {
+            double xi = 0;
+            if (isStation(tour[i])) {
+                // The vehicle could not reach the station
+                if (currentChargeLevel < -EPSILON) {
+                    return false;
+                }
+                xi = -currentChargeLevel;
+                for (int j = i; j < length - 1; j++) {
+                    xi += q_matrix.get(tour[j], tour[j + 1]);
+
+                    if (tour[j + 1] >= nV + 1 && tour[j + 1] <= nV + nC + 1) {
+                        break;
+                    }
+                }
+            }
+            xi = Math.min(Q - currentChargeLevel, xi);
+            xi = Math.max(0, xi);
+            currentChargeLevel += xi;
+            currentChargeLevel -= q_matrix.get(tour[i], tour[i + 1]);
+        }
+        if (currentChargeLevel >= -EPSILON) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    public boolean isTimeFeasible(int[] tour, int length) {
+        double currentChargeLevel = Q;
+        double time = 0;
+        for (int i = 0; i < length - 1; i++) {
+            double xi = 0;
+            if (isStation(tour[i])) {
+                xi = -currentChargeLevel;
+                for (int j = i; j < length - 1; j++) {
+                    xi += q_matrix.get(tour[j], tour[j + 1]);
+
+                    if (tour[j + 1] >= nV + 1 && tour[j + 1] <= nV + nC + 1) {
+                        break;
+                    }
+                }
+            }
+            xi = Math.min(Q, xi);
+            xi = Math.max(0, xi);
+            time += t_matrix.get(tour[i], tour[i + 1]);
+            time += xi * xi / 100;
+            currentChargeLevel -= q_matrix.get(tour[i], tour[i + 1]);
+        }
+        if (time <= T) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded least-recently-used memo of route feasibility verdicts, keyed by the node sequence of the route.
+ * Routes that survive from one cut iteration to the next are answered without solving their charging QP again.
+ */
+public class RouteFeasibilityCache {
+    private final Map<List<Integer>, Entry> entries;
+    private long hits;
+    private long misses;
+
+    public RouteFeasibilityCache(int capacity) {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Integer>, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param route The route from the leaving depot to the arriving depot
+     * @return the stored verdict, or null if the route has not been checked yet
+     */
+    public Entry get(List<Integer> route) {
+        Entry entry = entries.get(route);
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    public void put(List<Integer> route, boolean feasible, double[] chargingAmounts) {
+        entries.put(new ArrayList<>(route), new Entry(feasible, chargingAmounts.clone()));
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public static class Entry {
+        private final boolean feasible;
+        private final double[] chargingAmounts;
+
+        private Entry(boolean feasible, double[] chargingAmounts) {
+            this.feasible = feasible;
+            this.chargingAmounts = chargingAmounts;
+        }
+
+        public boolean isFeasible() {
+            return feasible;
+        }
+
+        public double[] getChargingAmounts() {
+            return chargingAmounts;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.Arrays;
+
+/**
+ * Binary max-heap of savings pairs kept in parallel primitive arrays. Every entry carries the versions of both
+ * tours at the time it was pushed, so entries of tours that changed since can be skipped lazily when they reach
+ * the top instead of being searched for and removed. Equal savings are popped in the order they were pushed.
+ */
+public class SavingsHeap {
+    // Largest number of entries the arrays can hold
+    public static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private double[] saving;
+    private int[] from;
+    private int[] to;
+    private int[] fromVersion;
+    private int[] toVersion;
+    private long[] sequence;
+    private int size;
+    private long pushed;
+
+    public SavingsHeap(int capacity) {
+        capacity = Math.max(capacity, 16);
+        saving = new double[capacity];
+        from = new int[capacity];
+        to = new int[capacity];
+        fromVersion = new int[capacity];
+        toVersion = new int[capacity];
+        sequence = new long[capacity];
+    }
+
+    public void push(double pairSaving, int location_i, int location_j, int version_i, int version_j) {
+        if (size == saving.length) {
+            if (size == MAX_CAPACITY) {
+                throw new IllegalStateException("Savings heap is full at " + size + " pairs");
+            }
+            int capacity = (int) Math.min(2L * size, MAX_CAPACITY);
+            saving = Arrays.copyOf(saving, capacity);
+            from = Arrays.copyOf(from, capacity);
+            to = Arrays.copyOf(to, capacity);
+            fromVersion = Arrays.copyOf(fromVersion, capacity);
+            toVersion = Arrays.copyOf(toVersion, capacity);
+            sequence = Arrays.copyOf(sequence, capacity);
+        }
+        int position = size++;
+        set(position, pairSaving, location_i, location_j, version_i, version_j, pushed++);
+        siftUp(position);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // Accessors for the entry with the largest saving
+    public double getSaving() {
+        return saving[0];
+    }
+
+    public int getFrom() {
+        return from[0];
+    }
+
+    public int getTo() {
+        return to[0];
+    }
+
+    public int getFromVersion() {
+        return fromVersion[0];
+    }
+
+    public int getToVersion() {
+        return toVersion[0];
+    }
+
+    /**
+     * Remove the entry with the largest saving.
+     */
+    public void pop() {
+        size--;
+        if (size > 0) {
+            set(0, saving[size], from[size], to[size], fromVersion[size], toVersion[size], sequence[size]);
+            siftDown(0);
+        }
+    }
+
+    private boolean before(double saving_a, long sequence_a, int b) {
+        if (saving_a != saving[b]) {
+            return saving_a > saving[b];
+        }
+        return sequence_a < sequence[b];
+    }
+
+    // Move the entry at position up by shifting its ancestors down into the hole
+    private void siftUp(int position) {
+        double s = saving[position];
+        int f = from[position];
+        int t = to[position];
+        int fv = fromVersion[position];
+        int tv = toVersion[position];
+        long q = sequence[position];
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (!before(s, q, parent)) {
+                break;
+            }
+            move(parent, position);
+            position = parent;
+        }
+        set(position, s, f, t, fv, tv, q);
+    }
+
+    // Move the entry at position down by shifting its best children up into the hole
+    private void siftDown(int position) {
+        double s = saving[position];
+        int f = from[position];
+        int t = to[position];
+        int fv = fromVersion[position];
+        int tv = toVersion[position];
+        long q = sequence[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(saving[child + 1], sequence[child + 1], child)) {
+                child++;
+            }
+            if (before(s, q, child)) {
+                break;
+            }
+            move(child, position);
+            position = child;
+        }
+        set(position, s, f, t, fv, tv, q);
+    }
+
+    private void move(int source, int target) {
+        set(target, saving[source], from[source], to[source], fromVersion[source], toVersion[source], sequence[source]);
+    }
+
+    private void set(int position, double pairSaving, int location_i, int location_j, int version_i, int version_j, long order) {
+        saving[position] = pairSaving;
+        from[position] = location_i;
+        to[position] = location_j;
+        fromVersion[position] = version_i;
+        toVersion[position] = version_j;
+        sequence[position] = order;
+    }
+}
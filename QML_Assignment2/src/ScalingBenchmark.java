@@ -0,0 +1,179 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs the solvers on generated instances of increasing size and writes the wall time, peak heap, objective and gap
+ * of every run to CSV, to show where each solver stops scaling. The gap of ChargingVRP and VRP is 0 when CPLEX
+ * proved optimality; the gap of the Heuristic is relative to the ChargingVRP optimum of the same instance, when that
+ * was found. Runs that fail or run out of memory are written with their status instead of stopping the ladder. With
+ * --mip-time, a model that reaches the time limit is written with status "time limit" and the objective and gap of
+ * its best solution, if it found one.
+ * Usage: ScalingBenchmark [--sizes 20,50,...] [--layout random|clustered|mixed] [--seed n] [--Q q] [--T t]
+ * [--stations share of buyers] [--solvers heuristic,vrp,chargingvrp] [--mip-max largest nV for the models]
+ * [--mip-time seconds per model run, 0 for no limit] [--neighbours k of the Heuristic] [--out file.csv]
+ */
+public class ScalingBenchmark {
+    private static final PrintStream console = System.out;
+    private static final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        options.put("sizes", "20,50,100,200,500,1000,2000,5000,10000");
+        options.put("layout", "mixed");
+        options.put("seed", "1");
+        options.put("Q", "50");
+        options.put("T", "235");
+        options.put("stations", "0.25");
+        options.put("solvers", "heuristic,vrp,chargingvrp");
+        options.put("mip-max", "50");
+        options.put("mip-time", "0");
+        options.put("neighbours", "20");
+        options.put("out", "scaling.csv");
+        for (int a = 0; a + 1 < args.length; a += 2) {
+            if (!args[a].startsWith("--") || !options.containsKey(args[a].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[a]);
+            }
+            options.put(args[a].substring(2), args[a + 1]);
+        }
+
+        InstanceGenerator.Layout layout = InstanceGenerator.Layout.valueOf(options.get("layout").toUpperCase(Locale.ROOT));
+        long seed = Long.parseLong(options.get("seed"));
+        double Q = Double.parseDouble(options.get("Q"));
+        double T = Double.parseDouble(options.get("T"));
+        double stationShare = Double.parseDouble(options.get("stations"));
+        List<String> solvers = Arrays.asList(options.get("solvers").toLowerCase(Locale.ROOT).split(","));
+        int mipMax = Integer.parseInt(options.get("mip-max"));
+        double mipTime = Double.parseDouble(options.get("mip-time"));
+        int k = Integer.parseInt(options.get("neighbours"));
+
+        try (PrintWriter out = new PrintWriter(new FileWriter(options.get("out")))) {
+            write(out, "solver,layout,buyers,stations,seed,wall time (s),peak heap (MB),objective,gap,status");
+            for (String size : options.get("sizes").split(",")) {
+                int nV = Integer.parseInt(size.trim());
+                int nC = Math.max(1, (int) Math.round(stationShare * nV));
+                long instanceSeed = seed + nV;
+                String instance = layout + "," + nV + "," + nC + "," + instanceSeed;
+                // Generating buyers before stations, the VRP instance has the same buyers without the stations
+                double[][] coordinates = new InstanceGenerator(Q, T, instanceSeed).generate(layout, nV, nC);
+                double[][] buyersOnly = new InstanceGenerator(Q, T, instanceSeed).generate(layout, nV, 0);
+
+                double optimum = Double.NaN;
+                if (solvers.contains("chargingvrp")) {
+                    Run run = nV > mipMax ? Run.skipped() : measure(result -> {
+                        ChargingVRP model = new ChargingVRP(DistanceMatrix.euclidean(coordinates), Q, T, nV, nC);
+                        model.setDeadline(mipTime);
+                        model.solveModel();
+                        result.objective = model.getObjValue();
+                        result.gap = model.getGap();
+                    }, mipTime);
+                    if (run.gap == 0) {
+                        optimum = run.objective;
+                    }
+                    write(out, "ChargingVRP," + instance + "," + run + "," + run.status);
+                }
+                if (solvers.contains("vrp")) {
+                    Run run = nV > mipMax ? Run.skipped() : measure(result -> {
+                        VRP model = new VRP(DistanceMatrix.euclidean(buyersOnly), Q, T);
+                        model.setTimeLimit(mipTime);
+                        model.solveModel();
+                        result.objective = model.getObjValue();
+                        result.gap = model.getGap();
+                    }, mipTime);
+                    write(out, "VRP," + instance + "," + run + "," + run.status);
+                }
+                if (solvers.contains("heuristic")) {
+                    Run run = measure(result -> {
+                        Heuristic heuristic = new Heuristic(DistanceMatrix.euclidean(coordinates), Q, T, nV, nC);
+                        heuristic.setNeighbourListSize(k);
+                        heuristic.solveModel();
+                        result.objective = heuristic.getObjValue();
+                    }, 0);
+                    if (!Double.isNaN(optimum) && !Double.isNaN(run.objective)) {
+                        run.gap = (run.objective - optimum) / optimum;
+                    }
+                    write(out, "Heuristic," + instance + "," + run + "," + run.status);
+                }
+            }
+        }
+    }
+
+    private static void write(PrintWriter out, String line) {
+        out.println(line);
+        out.flush();
+        console.println(line);
+    }
+
+    private interface Solver {
+        // Set the objective of the run, and its gap if it is known
+        void solve(Run run) throws Exception;
+    }
+
+    private static class Run {
+        double wallTime = Double.NaN;
+        double peakHeap = Double.NaN;
+        double objective = Double.NaN;
+        double gap = Double.NaN;
+        String status = "ok";
+
+        static Run skipped() {
+            Run run = new Run();
+            run.status = "skipped";
+            return run;
+        }
+
+        // Wall time, peak heap, objective and gap columns
+        @Override
+        public String toString() {
+            return (Double.isNaN(wallTime) ? "" : wallTime) + "," + (Double.isNaN(peakHeap) ? "" : peakHeap) + ","
+                    + (Double.isNaN(objective) ? "" : objective) + "," + (Double.isNaN(gap) ? "" : gap);
+        }
+    }
+
+    // Run a solver with its output discarded, measuring the wall time and the peak use of the heap pools. A model
+    // run with a time limit (0 for none) has reached it when it did not prove its solution optimal in that time
+    private static Run measure(Solver solver, double timeLimit) {
+        Run run = new Run();
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        System.gc();
+        for (MemoryPoolMXBean pool : pools) {
+            pool.resetPeakUsage();
+        }
+        long start = System.nanoTime();
+        System.setOut(discard);
+        try {
+            solver.solve(run);
+            boolean limitReached = timeLimit > 0 && run.gap != 0 && (System.nanoTime() - start) / 1e9 >= timeLimit;
+            if (limitReached) {
+                run.status = "time limit";
+            } else if (Double.isNaN(run.objective)) {
+                run.status = "no optimal solution";
+            }
+        } catch (OutOfMemoryError e) {
+            run.status = "out of memory";
+        } catch (Exception | LinkageError e) {
+            run.status = "error: " + e.toString().replace(',', ';');
+        } finally {
+            System.setOut(console);
+        }
+        run.wallTime = (System.nanoTime() - start) / 1e9;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        run.peakHeap = peak / (1024.0 * 1024.0);
+        return run;
+    }
+}
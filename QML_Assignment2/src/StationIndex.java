@@ -0,0 +1,235 @@
+/**
+ * k-d tree over the coordinates of the charging stations in the plane. A query between two locations returns the stations one by
+ * one in increasing order of the detour d(from, f) + d(f, to) - d(from, to) of driving past them, so a caller looking
+ * for the cheapest feasible station can stop as soon as the detour exceeds the best one found. Subtrees are expanded
+ * best-first on a lower bound of the detour over their bounding box, so far away stations are never looked at.
+ */
+public class StationIndex {
+    private double[][] coordinates; // coordinates[dimension][location]
+    private int nStations;
+    private int[] stations; // station locations, ordered as an implicit tree: the node of lo..hi is at (lo + hi) / 2
+    private int[] lowerEnd; // range lo..hi-1 of the subtree at every node
+    private int[] upperEnd;
+    private double[] minX;
+    private double[] maxX;
+    private double[] minY;
+    private double[] maxY;
+
+    // Query state: a binary min-heap of subtrees (non-negative node positions) and stations (-location - 1)
+    private double[] key;
+    private int[] item;
+    private int size;
+    private int from;
+    private int to;
+    private double direct;
+    private double detour;
+
+    /**
+     * @param coordinates Coordinates of every location, indexed as coordinates[dimension][location], in two dimensions
+     * @param firstStation First location that is a charging station
+     * @param numChargeStations Number of charging stations, stored at consecutive locations
+     */
+    public StationIndex(double[][] coordinates, int firstStation, int numChargeStations) {
+        if (coordinates.length != 2) {
+            throw new IllegalArgumentException(coordinates.length + " dimensions instead of 2");
+        }
+        this.coordinates = coordinates;
+        nStations = numChargeStations;
+        stations = new int[nStations];
+        for (int s = 0; s < nStations; s++) {
+            stations[s] = firstStation + s;
+        }
+        lowerEnd = new int[nStations];
+        upperEnd = new int[nStations];
+        minX = new double[nStations];
+        maxX = new double[nStations];
+        minY = new double[nStations];
+        maxY = new double[nStations];
+        build(0, nStations, true);
+
+        key = new double[2 * nStations + 1];
+        item = new int[2 * nStations + 1];
+    }
+
+    /**
+     * Copy sharing the tree, with its own query state, so queries can run on several threads.
+     */
+    public StationIndex(StationIndex tree) {
+        coordinates = tree.coordinates;
+        nStations = tree.nStations;
+        stations = tree.stations;
+        lowerEnd = tree.lowerEnd;
+        upperEnd = tree.upperEnd;
+        minX = tree.minX;
+        maxX = tree.maxX;
+        minY = tree.minY;
+        maxY = tree.maxY;
+        key = new double[2 * nStations + 1];
+        item = new int[2 * nStations + 1];
+    }
+
+    // Order stations lo..hi-1 around the median on alternating axes and store the bounding box of every subtree
+    private void build(int lo, int hi, boolean onX) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) / 2;
+        select(lo, hi - 1, mid, onX ? 0 : 1);
+        lowerEnd[mid] = lo;
+        upperEnd[mid] = hi;
+
+        minX[mid] = Double.POSITIVE_INFINITY;
+        maxX[mid] = Double.NEGATIVE_INFINITY;
+        minY[mid] = Double.POSITIVE_INFINITY;
+        maxY[mid] = Double.NEGATIVE_INFINITY;
+        for (int s = lo; s < hi; s++) {
+            double x = coordinates[0][stations[s]];
+            double y = coordinates[1][stations[s]];
+            minX[mid] = Math.min(minX[mid], x);
+            maxX[mid] = Math.max(maxX[mid], x);
+            minY[mid] = Math.min(minY[mid], y);
+            maxY[mid] = Math.max(maxY[mid], y);
+        }
+        build(lo, mid, !onX);
+        build(mid + 1, hi, !onX);
+    }
+
+    // Quickselect, so that stations[k] is the median of stations[lo..hi] on the given dimension
+    private void select(int lo, int hi, int k, int dimension) {
+        while (lo < hi) {
+            double pivot = coordinates[dimension][stations[(lo + hi) / 2]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coordinates[dimension][stations[i]] < pivot) {
+                    i++;
+                }
+                while (coordinates[dimension][stations[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = stations[i];
+                    stations[i++] = stations[j];
+                    stations[j--] = swap;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start returning the stations for an insertion between two locations.
+     */
+    public void query(int location_from, int location_to) {
+        from = location_from;
+        to = location_to;
+        direct = distance(from, to);
+        size = 0;
+        if (nStations > 0) {
+            push(boxDetour(nStations / 2), nStations / 2);
+        }
+    }
+
+    /**
+     * @return the station with the next smallest detour, or 0 when all stations were returned
+     */
+    public int nextStation() {
+        while (size > 0) {
+            double bound = key[0];
+            int top = item[0];
+            pop();
+            if (top < 0) {
+                detour = bound;
+                return -top - 1;
+            }
+            int station = stations[top];
+            push(distance(from, station) + distance(station, to) - direct, -station - 1);
+            int lo = lowerEnd[top];
+            int hi = upperEnd[top];
+            if (lo < top) {
+                int child = (lo + top) / 2;
+                push(boxDetour(child), child);
+            }
+            if (top + 1 < hi) {
+                int child = (top + 1 + hi) / 2;
+                push(boxDetour(child), child);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the detour of the station last returned by nextStation
+     */
+    public double getDetour() {
+        return detour;
+    }
+
+    // No point in the box of a subtree can be passed with a smaller detour than this
+    private double boxDetour(int node) {
+        double bound = boxDistance(node, from) + boxDistance(node, to);
+        return Math.max(bound, direct) - direct;
+    }
+
+    private double boxDistance(int node, int location) {
+        double x = coordinates[0][location];
+        double y = coordinates[1][location];
+        double dx = Math.max(0, Math.max(minX[node] - x, x - maxX[node]));
+        double dy = Math.max(0, Math.max(minY[node] - y, y - maxY[node]));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private double distance(int location_i, int location_j) {
+        double dx = coordinates[0][location_i] - coordinates[0][location_j];
+        double dy = coordinates[1][location_i] - coordinates[1][location_j];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private void push(double value, int entry) {
+        int position = size++;
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (key[parent] <= value) {
+                break;
+            }
+            key[position] = key[parent];
+            item[position] = item[parent];
+            position = parent;
+        }
+        key[position] = value;
+        item[position] = entry;
+    }
+
+    private void pop() {
+        size--;
+        if (size == 0) {
+            return;
+        }
+        double value = key[size];
+        int entry = item[size];
+        int position = 0;
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && key[child + 1] < key[child]) {
+                child++;
+            }
+            if (value <= key[child]) {
+                break;
+            }
+            key[position] = key[child];
+            item[position] = item[child];
+            position = child;
+        }
+        key[position] = value;
+        item[position] = entry;
+    }
+}
@@ -1,132 +1,229 @@
 import ilog.concert.IloException;
-import ilog.concert.IloNumExpr;
 import ilog.concert.IloNumVar;
 import ilog.cplex.IloCplex;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class VRP {
     private int nLocations;
-    private double[][] d_matrix;
-    private double[][] c_matrix;
-    private double[][] q_matrix;
-    private double[][] t_matrix;
+    private DistanceMatrix d_matrix;
+    private DistanceMatrix c_matrix;
+    private DistanceMatrix q_matrix;
+    private DistanceMatrix t_matrix;
     private double Q;
     private double T;
     private IloCplex cplex;
     private IloNumVar[][] z_matrix;
     private IloNumVar[] rho_vector;
     private IloNumVar[] psi_vector;
+    private ArcFilter arcFilter;
+    private ModelBuilder builder;
+    private boolean useWarmStart;
+    private boolean built; // true once buildModel has added the objective and constraints
+    private double objective = Double.NaN;
+    private double gap = Double.NaN;
 
     public VRP(double[][] distances, double maxElectricity, double maxTime) throws IloException {
+        this(DistanceMatrix.of(distances), maxElectricity, maxTime);
+    }
+
+    public VRP(DistanceMatrix distances, double maxElectricity, double maxTime) throws IloException {
         // Initialize the cplex solver
         cplex = new IloCplex();
 
-        nLocations = distances.length;
+        nLocations = distances.size();
         d_matrix = distances;
         Q = maxElectricity;
         T = maxTime;
 
-        c_matrix = new double[nLocations][nLocations];
-        q_matrix = new double[nLocations][nLocations];
-        t_matrix = new double[nLocations][nLocations];
+        // Costs, required charge, and time, between locations, shared by every solver on these distances
+        ArcAttributes arcs = ArcAttributes.of(d_matrix);
+        c_matrix = arcs.getCosts();
+        q_matrix = arcs.getCharges();
+        t_matrix = arcs.getTimes();
 
-        // Creating the decision variables: matrix x and vector y
-        z_matrix = new IloNumVar[nLocations][nLocations];
-        rho_vector = new IloNumVar[nLocations];
-        psi_vector = new IloNumVar[nLocations];
+        // Creating the decision variables: matrix x and vector y, only for arcs that can be part of a route
+        arcFilter = new ArcFilter(t_matrix, q_matrix, Q, T, nLocations - 2);
+        System.out.println(arcFilter);
+        builder = new ModelBuilder(cplex, arcFilter, nLocations);
+        z_matrix = builder.getArcMatrix();
 
-        for (int i = 0; i < nLocations; i++) {
-            for (int j = 0; j < nLocations; j++) {
-                z_matrix[i][j] = cplex.boolVar("Arc (" + i + "," + j + ")");
+        builder.startTimer();
+        rho_vector = cplex.numVarArray(nLocations, 0, Q);
+        psi_vector = cplex.numVarArray(nLocations, 0, T);
+        builder.stopTimer();
+    }
+
+    /**
+     * @param warmStart True to run the Heuristic before solving and use its routes as MIP start
+     */
+    public void setWarmStart(boolean warmStart) {
+        useWarmStart = warmStart;
+    }
+
+    /**
+     * Use routes (e.g. from Heuristic.getRoutes()) as MIP start. Routes that use a pruned arc or exceed the charge or
+     * time limit are left out, and CPLEX repairs the rest of the start.
+     *
+     * @param routes Routes from depot 0 to depot n-1
+     */
+    public void addWarmStart(int[][] routes) throws IloException {
+        int end = nLocations - 1;
+        double[] rho = new double[nLocations];
+        double[] psi = new double[nLocations];
+        List<int[]> valid = new ArrayList<>();
+        double startObjective = 0;
+        for (int[] route : routes) {
+            double charge = 0;
+            double time = 0;
+            double cost = 0;
+            for (int p = 0; p < route.length - 1; p++) {
+                charge += q_matrix.get(route[p], route[p + 1]);
+                time += t_matrix.get(route[p], route[p + 1]);
+                cost += c_matrix.get(route[p], route[p + 1]);
             }
-        }
+            if (!builder.hasArcs(route) || charge > Q || time > T) {
+                continue;
+            }
+            valid.add(route);
+            startObjective += cost;
 
-        // Calculate costs, required charge, and time, between locations
-        for (int i = 0; i < nLocations; i++) {
-            for (int j = 0; j < nLocations; j++) {
-                c_matrix[i][j] = 1 + d_matrix[i][j];
-                q_matrix[i][j] = 10 + Math.pow(d_matrix[i][j], 0.75);
-                t_matrix[i][j] = 5 + Math.pow(d_matrix[i][j], 0.9);
+            // Charge and time are the cumulative use from the depot
+            charge = 0;
+            time = 0;
+            for (int p = 1; p < route.length; p++) {
+                charge += q_matrix.get(route[p - 1], route[p]);
+                time += t_matrix.get(route[p - 1], route[p]);
+                if (route[p] != end) {
+                    rho[route[p]] = charge;
+                    psi[route[p]] = time;
+                }
             }
+            rho[end] = Math.max(rho[end], charge);
+            psi[end] = Math.max(psi[end], time);
         }
+        builder.addMIPStart(valid, new IloNumVar[][]{rho_vector, psi_vector}, new double[][]{rho, psi}, valid.size() == routes.length);
+        System.out.println("Warm start: " + valid.size() + " of " + routes.length + " routes, objective = " + startObjective);
+    }
 
-        for (int i = 0; i < nLocations; i++) {
-            rho_vector[i] = cplex.numVar(0, Q);
-            psi_vector[i] = cplex.numVar(0, T);
-        }
+    /**
+     * Limit the threads of CPLEX, e.g. when several models are solved at the same time.
+     *
+     * @param threads Number of threads CPLEX may use, 0 (the default) to let CPLEX decide
+     */
+    public void setThreads(int threads) throws IloException {
+        cplex.setParam(IloCplex.Param.Threads, threads);
     }
 
-    public void solveModel() throws IloException {
-        // Create the objective function
-        IloNumExpr obj = cplex.constant(0);
-        for (int i = 0; i < nLocations; i++) {
-            for (int j = 0; j < nLocations; j++) {
-                obj = cplex.sum(obj, cplex.prod(c_matrix[i][j], z_matrix[i][j]));
-            }
+    /**
+     * Stop solving after the given time and keep the best solution found by then.
+     *
+     * @param seconds Time limit of the solve, 0 (the default) for none
+     */
+    public void setTimeLimit(double seconds) throws IloException {
+        if (seconds > 0) {
+            cplex.setParam(IloCplex.Param.TimeLimit, seconds);
         }
-        cplex.addMinimize(obj);
+    }
 
-        // Disallows travel to and form the same location
-        for (int i = 0; i < nLocations; i++) {
-            cplex.addEq(z_matrix[i][i], 0);
-        }
-        cplex.addEq(z_matrix[0][nLocations - 1], 0);
+    /**
+     * @return the objective of the optimal solution found by solveModel or, after the time limit, of the best
+     * solution found, NaN if none was found
+     */
+    public double getObjValue() {
+        return objective;
+    }
+
+    /**
+     * @return the relative gap between getObjValue and the best bound of CPLEX, 0 if the solution is optimal and NaN
+     * if it is not known
+     */
+    public double getGap() {
+        return gap;
+    }
+
+    /**
+     * Add the objective and the constraints to the model. solveModel does this itself if it has not been done, so it
+     * only needs to be called to build the model without solving it, e.g. to time the build.
+     */
+    public void buildModel() throws IloException {
+        built = true;
+        builder.startTimer();
+
+        // Create the objective function
+        cplex.addMinimize(builder.weightedArcs(c_matrix));
 
         // Visit constraints (1b)
         for (int i = 1; i < nLocations - 1; i++) {
-            IloNumExpr LHS2 = cplex.constant(0);
-            for (int j = 1; j < nLocations; j++) {
-                if (j != i) {
-                    LHS2 = cplex.sum(LHS2, z_matrix[i][j]);
-                }
-            }
-            cplex.addEq(LHS2, 1);
+            cplex.addEq(builder.addOutgoing(cplex.linearNumExpr(), 1, i, 1, nLocations - 1), 1);
         }
 
         // Depart constraints (1c)
         for (int k = 1; k < nLocations - 1; k++) {
-            IloNumExpr LHS3 = cplex.constant(0);
-            for (int i = 0; i < nLocations - 1; i++) {
-                if (i != k) {
-                    LHS3 = cplex.sum(LHS3, z_matrix[i][k]);
-                }
-            }
-            cplex.addEq(LHS3, 1);
+            cplex.addEq(builder.addIncoming(cplex.linearNumExpr(), 1, k, 0, nLocations - 2), 1);
         }
 
         // Time and charge constraints to disallow subtours (1d & 1f)
-        for (int i = 0; i < nLocations; i++) {
-            for (int j = 0; j < nLocations; j++) {
-                if (i != j) {
-                    IloNumExpr RHS_time = cplex.diff(cplex.sum(psi_vector[i], cplex.prod(t_matrix[i][j], z_matrix[i][j])),
-                            cplex.prod(T, cplex.diff(1, z_matrix[i][j])));
-                    cplex.addGe(psi_vector[j], RHS_time);
-
-                    IloNumExpr RHS_charge = cplex.diff(cplex.sum(rho_vector[i], cplex.prod(q_matrix[i][j], z_matrix[i][j])),
-                            cplex.prod(Q, cplex.diff(1, z_matrix[i][j])));
-                    cplex.addGe(rho_vector[j], RHS_charge);
-                }
-            }
-        }
+        builder.addPropagation(psi_vector, t_matrix, T, 0, nLocations - 1, true);
+        builder.addPropagation(rho_vector, q_matrix, Q, 0, nLocations - 1, true);
 
         // Constraint to limit time and charge (1e & 1g)
         for (int j = 1; j < nLocations - 1; j++) {
-            cplex.addLe(t_matrix[0][j], psi_vector[j]);
-            cplex.addLe(psi_vector[j], T - t_matrix[j][nLocations - 1]);
-            cplex.addLe(q_matrix[0][j], rho_vector[j]);
-            cplex.addLe(rho_vector[j], Q - q_matrix[j][nLocations - 1]);
+            cplex.addLe(t_matrix.get(0, j), psi_vector[j]);
+            cplex.addLe(psi_vector[j], T - t_matrix.get(j, nLocations - 1));
+            cplex.addLe(q_matrix.get(0, j), rho_vector[j]);
+            cplex.addLe(rho_vector[j], Q - q_matrix.get(j, nLocations - 1));
         }
+        builder.stopTimer();
+    }
 
+    /**
+     * Release the CPLEX model of a model that is not solved; solveModel closes it when it is done.
+     */
+    public void close() {
+        cplex.close();
+    }
+
+    public void solveModel() throws IloException {
+        if (useWarmStart) {
+            System.out.println("Warm start heuristic");
+            Heuristic heuristic = new Heuristic(d_matrix, Q, T, nLocations - 2, 0);
+            heuristic.solveModel();
+            addWarmStart(heuristic.getRoutes());
+        }
+
+        if (!built) {
+            buildModel();
+        }
+
+        long solveStart = System.nanoTime();
         cplex.setOut(null);
         cplex.solve();
+        double solveTime = (System.nanoTime() - solveStart) / 1e9;
+        System.out.println("Build time = " + builder.getBuildTime() + " s");
+        System.out.println("Solve time = " + solveTime + " s");
+        System.out.println("Nodes = " + cplex.getNnodes64());
 
         // Query the solution
-        if (cplex.getStatus() == IloCplex.Status.Optimal) {
-            System.out.println("Found optimal solution!");
-            System.out.println("Objective = " + cplex.getObjValue());
+        boolean optimal = cplex.getStatus() == IloCplex.Status.Optimal;
+        if (optimal || cplex.getStatus() == IloCplex.Status.Feasible) {
+            objective = cplex.getObjValue();
+            if (optimal) {
+                System.out.println("Found optimal solution!");
+                gap = 0;
+            } else {
+                System.out.println("Time limit reached, best solution found:");
+                gap = Math.abs(objective - cplex.getBestObjValue()) / (1e-10 + Math.abs(objective));
+            }
+            System.out.println("Objective = " + objective);
+            if (!optimal) {
+                System.out.println("Gap = " + gap);
+            }
 
             int route = 0;
             for (int i = 0; i < nLocations; i++) {
-                if (cplex.getValue(z_matrix[0][i]) >= 0.5) {
+                if (z_matrix[0][i] != null && cplex.getValue(z_matrix[0][i]) >= 0.5) {
                     route++;
                     System.out.print("Route " + route + ": 0");
                     int from = 0;
@@ -136,11 +233,11 @@ public class VRP {
                     double totalTime = 0;
                     double totalCharge = 0;
                     while (to < nLocations) {
-                        if (cplex.getValue(z_matrix[from][to]) >= 0.5) {
-                            totalDistance += d_matrix[from][to];
-                            totalCost += c_matrix[from][to];
-                            totalTime += t_matrix[from][to];
-                            totalCharge += q_matrix[from][to];
+                        if (z_matrix[from][to] != null && cplex.getValue(z_matrix[from][to]) >= 0.5) {
+                            totalDistance += d_matrix.get(from, to);
+                            totalCost += c_matrix.get(from, to);
+                            totalTime += t_matrix.get(from, to);
+                            totalCharge += q_matrix.get(from, to);
                             System.out.print(", " + to);
                             from = to;
                             to = 0;
@@ -161,6 +258,6 @@ public class VRP {
         }
 
         // Close the model
-        cplex.close();
+        close();
     }
 }